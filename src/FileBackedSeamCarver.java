@@ -0,0 +1,573 @@
+import edu.princeton.cs.algs4.Picture;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+
+import java.awt.Color;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/*
+ * Out-of-core seam carver for pictures too large for the heap. Packed pixels, energies and seam
+ * back-pointers live in files and are only ever read and written one band of rows at a time, by
+ * positional I/O into band buffers allocated once, so memory usage is a few bands of rows whatever
+ * the picture size. Like SeamCarver, the files are kept in the orientation of the last seam
+ * direction, and horizontal seams are handled as vertical seams of the transposed picture.
+ *
+ * The files are not memory-fileBacked: every mapping would hold a native mapping until the garbage
+ * collector happens to free it, and on gigapixel pictures these pile up past the kernel's limit on
+ * mappings per process.
+ */
+public class FileBackedSeamCarver implements Closeable {
+
+    private static final double EDGE_ENERGY = 1000.0;
+
+    private final int mOriginalWidth;
+    private final int mOriginalHeight;
+    private final int mBandRows;
+
+    private int mWidth;
+    private int mHeight;
+    private int mStride;
+    private boolean mTransposed;
+
+    // files in the current orientation, the spares that transposition writes into, and back-pointers
+    private final File[] mFiles;
+    private FileChannel mPixels;
+    private FileChannel mEnergy;
+    private FileChannel mSparePixels;
+    private FileChannel mSpareEnergy;
+    private final FileChannel mBackPointers;
+
+    /*
+     * Band buffers in native byte order, with rows mStride values apart as in the files: pixels of up
+     * to mBandRows rows plus a halo row above and below, energies and back-pointers of mBandRows rows,
+     * and one column of a band for transposition.
+     */
+    private final ByteBuffer mPixelBand;
+    private final ByteBuffer mEnergyBand;
+    private final ByteBuffer mBackPointerBand;
+    private final ByteBuffer mPixelColumn;
+    private final ByteBuffer mEnergyColumn;
+    private final IntBuffer mPixelInts;
+    private final DoubleBuffer mEnergyDoubles;
+    private final IntBuffer mPixelColumnInts;
+    private final DoubleBuffer mEnergyColumnDoubles;
+    private final ByteBuffer mScalar;
+
+    // row-sized working memory, the only heap the seam operations use
+    private double[] mRowDistTo;
+    private double[] mNextRowDistTo;
+    private final int[] mRow;
+
+    // create an out-of-core seam carver for the picture, keeping its files in the given directory
+    public FileBackedSeamCarver(Picture picture, File directory, int bandRows) {
+        this(verifyPicture(picture).width(), picture.height(), directory, bandRows);
+
+        try {
+            for (int from = 0; from < mHeight; from += mBandRows) {
+                int to = Math.min(from + mBandRows, mHeight);
+                for (int y = from; y < to; ++y) {
+                    for (int x = 0; x < mWidth; ++x) {
+                        mPixelInts.put((y - from) * mStride + x, picture.getRGB(x, y) & 0xFFFFFF);
+                    }
+                }
+                writePixelRows(mPixels, from, to);
+            }
+            computeEnergies();
+        } catch (RuntimeException e) {
+            closeAll(channels(), mFiles, e);
+            throw e;
+        }
+    }
+
+    // create an out-of-core seam carver for a raw file of width * height row-major 0xRRGGBB ints
+    public FileBackedSeamCarver(File rgbFile, int width, int height, File directory, int bandRows) {
+        this(verifyRawFile(rgbFile, width, height), height, directory, bandRows);
+
+        // the raw file is big-endian, the band buffers are in native order
+        IntBuffer source = mPixelBand.duplicate().order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+        try (RandomAccessFile file = new RandomAccessFile(rgbFile, "r")) {
+            FileChannel channel = file.getChannel();
+            for (int from = 0; from < mHeight; from += mBandRows) {
+                int to = Math.min(from + mBandRows, mHeight);
+                read(channel, mPixelBand, 4L * from * width, 4 * (to - from) * width);
+                for (int y = from; y < to; ++y) {
+                    source.get((y - from) * width, mRow, 0, width);
+                    for (int x = 0; x < width; ++x) mRow[x] &= 0xFFFFFF;
+                    mPixelInts.put((y - from) * mStride, mRow, 0, width);
+                }
+                writePixelRows(mPixels, from, to);
+            }
+            computeEnergies();
+        } catch (IOException e) {
+            UncheckedIOException failure = new UncheckedIOException(e);
+            closeAll(channels(), mFiles, failure);
+            throw failure;
+        } catch (RuntimeException e) {
+            closeAll(channels(), mFiles, e);
+            throw e;
+        }
+    }
+
+    private FileBackedSeamCarver(int width, int height, File directory, int bandRows) {
+        if (width < 1 || height < 1 || directory == null || !directory.isDirectory()) throw new IllegalArgumentException();
+        int breadth = Math.max(width, height);
+        if (bandRows < 1 || (long) (bandRows + 2) * breadth * Double.BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException();
+        }
+
+        mOriginalWidth = width;
+        mOriginalHeight = height;
+        mBandRows = bandRows;
+        mWidth = width;
+        mHeight = height;
+        mStride = width;
+
+        mPixelBand = ByteBuffer.allocateDirect((bandRows + 2) * breadth * Integer.BYTES).order(ByteOrder.nativeOrder());
+        mEnergyBand = ByteBuffer.allocateDirect(bandRows * breadth * Double.BYTES).order(ByteOrder.nativeOrder());
+        mBackPointerBand = ByteBuffer.allocateDirect(bandRows * breadth);
+        mPixelColumn = ByteBuffer.allocateDirect(bandRows * Integer.BYTES).order(ByteOrder.nativeOrder());
+        mEnergyColumn = ByteBuffer.allocateDirect(bandRows * Double.BYTES).order(ByteOrder.nativeOrder());
+        mPixelInts = mPixelBand.asIntBuffer();
+        mEnergyDoubles = mEnergyBand.asDoubleBuffer();
+        mPixelColumnInts = mPixelColumn.asIntBuffer();
+        mEnergyColumnDoubles = mEnergyColumn.asDoubleBuffer();
+        mScalar = ByteBuffer.allocateDirect(Double.BYTES).order(ByteOrder.nativeOrder());
+
+        mRowDistTo = new double[breadth];
+        mNextRowDistTo = new double[breadth];
+        mRow = new int[breadth];
+
+        mFiles = new File[5];
+        FileChannel[] channels = new FileChannel[5];
+        try {
+            for (int i = 0; i < mFiles.length; ++i) {
+                mFiles[i] = File.createTempFile("seam", ".bin", directory);
+                mFiles[i].deleteOnExit();
+                channels[i] = new RandomAccessFile(mFiles[i], "rw").getChannel();
+            }
+        } catch (IOException e) {
+            // nobody can close a carver that failed to construct, so release what was opened so far
+            UncheckedIOException failure = new UncheckedIOException(e);
+            closeAll(channels, mFiles, failure);
+            throw failure;
+        }
+        mPixels = channels[0];
+        mEnergy = channels[1];
+        mSparePixels = channels[2];
+        mSpareEnergy = channels[3];
+        mBackPointers = channels[4];
+    }
+
+    private static Picture verifyPicture(Picture picture) {
+        if (picture == null) throw new IllegalArgumentException();
+        return picture;
+    }
+
+    // check the raw file before any backing file is created, and pass its width on
+    private static int verifyRawFile(File rgbFile, int width, int height) {
+        if (rgbFile == null || rgbFile.length() < 4L * width * height) throw new IllegalArgumentException();
+        return width;
+    }
+
+    // read bytes from the channel at position into the start of the buffer
+    private static void read(FileChannel channel, ByteBuffer buffer, long position, int bytes) {
+        buffer.clear().limit(bytes);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) break;
+            }
+            buffer.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // write bytes [offset, offset + bytes) of the buffer to the channel at position
+    private static void write(FileChannel channel, ByteBuffer buffer, long position, int offset, int bytes) {
+        buffer.clear().limit(offset + bytes).position(offset);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position() - offset);
+            }
+            buffer.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // rows [from, to) of the current orientation into mPixelInts, row from first
+    private void readPixelRows(FileChannel channel, int from, int to) {
+        read(channel, mPixelBand, (long) from * mStride * Integer.BYTES, (to - from) * mStride * Integer.BYTES);
+    }
+
+    private void writePixelRows(FileChannel channel, int from, int to) {
+        write(channel, mPixelBand, (long) from * mStride * Integer.BYTES, 0, (to - from) * mStride * Integer.BYTES);
+    }
+
+    private void readEnergyRows(FileChannel channel, int from, int to) {
+        read(channel, mEnergyBand, (long) from * mStride * Double.BYTES, (to - from) * mStride * Double.BYTES);
+    }
+
+    private void writeEnergyRows(FileChannel channel, int from, int to) {
+        write(channel, mEnergyBand, (long) from * mStride * Double.BYTES, 0, (to - from) * mStride * Double.BYTES);
+    }
+
+    private int bufferWidth() {
+        return mTransposed ? mHeight : mWidth;
+    }
+
+    private int bufferHeight() {
+        return mTransposed ? mWidth : mHeight;
+    }
+
+    private long bufferIndex(int x, int y) {
+        return mTransposed ? (long) x * mStride + y : (long) y * mStride + x;
+    }
+
+    // energies of all pixels, band by band, with one halo row of pixels above and below each band
+    private void computeEnergies() {
+        int width = bufferWidth();
+        int height = bufferHeight();
+        for (int from = 0; from < height; from += mBandRows) {
+            int to = Math.min(from + mBandRows, height);
+            int first = Math.max(from - 1, 0);
+            readPixelRows(mPixels, first, Math.min(to + 1, height));
+            for (int y = from; y < to; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    mEnergyDoubles.put((y - from) * mStride + x, energyOf(mPixelInts, first, width, height, x, y));
+                }
+            }
+            writeEnergyRows(mEnergy, from, to);
+        }
+    }
+
+    // the same dual-gradient energy as SeamCarver, reading pixels from a band starting at row first
+    private double energyOf(IntBuffer pixels, int first, int width, int height, int x, int y) {
+        if (x == 0 || x == width - 1 || y == 0 || y == height - 1) return EDGE_ENERGY;
+        int position = (y - first) * mStride + x;
+        int deltaXSquared = gradientSquared(pixels.get(position - 1), pixels.get(position + 1));
+        int deltaYSquared = gradientSquared(pixels.get(position - mStride), pixels.get(position + mStride));
+        return Math.sqrt(deltaXSquared + deltaYSquared);
+    }
+
+    private static int gradientSquared(int a, int b) {
+        int red = ((a >> 16) & 0xFF) - ((b >> 16) & 0xFF);
+        int green = ((a >> 8) & 0xFF) - ((b >> 8) & 0xFF);
+        int blue = (a & 0xFF) - (b & 0xFF);
+        return red * red + green * green + blue * blue;
+    }
+
+    private void orient(boolean isVertical) {
+        if (mTransposed == isVertical) transpose();
+    }
+
+    /*
+     * Copy pixels and energies into the spare files in transposed layout. Each source band is read
+     * once, and its column x becomes the segment of target row x starting at the band's first row.
+     */
+    private void transpose() {
+        int width = bufferWidth();
+        int height = bufferHeight();
+        int stride = mTransposed ? mOriginalWidth : mOriginalHeight;
+
+        for (int from = 0; from < height; from += mBandRows) {
+            int to = Math.min(from + mBandRows, height);
+            readPixelRows(mPixels, from, to);
+            readEnergyRows(mEnergy, from, to);
+            for (int x = 0; x < width; ++x) {
+                for (int y = from; y < to; ++y) {
+                    mPixelColumnInts.put(y - from, mPixelInts.get((y - from) * mStride + x));
+                    mEnergyColumnDoubles.put(y - from, mEnergyDoubles.get((y - from) * mStride + x));
+                }
+                long target = (long) x * stride + from;
+                write(mSparePixels, mPixelColumn, target * Integer.BYTES, 0, (to - from) * Integer.BYTES);
+                write(mSpareEnergy, mEnergyColumn, target * Double.BYTES, 0, (to - from) * Double.BYTES);
+            }
+        }
+
+        FileChannel pixels = mPixels;
+        FileChannel energy = mEnergy;
+        mPixels = mSparePixels;
+        mEnergy = mSpareEnergy;
+        mSparePixels = pixels;
+        mSpareEnergy = energy;
+        mStride = stride;
+        mTransposed = !mTransposed;
+    }
+
+    // current picture; only for results that fit on the heap
+    public Picture picture() {
+        Picture picture = new Picture(mWidth, mHeight);
+        int width = bufferWidth();
+        int height = bufferHeight();
+        for (int from = 0; from < height; from += mBandRows) {
+            int to = Math.min(from + mBandRows, height);
+            readPixelRows(mPixels, from, to);
+            for (int y = from; y < to; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    int rgb = mPixelInts.get((y - from) * mStride + x);
+                    if (mTransposed) picture.setRGB(y, x, rgb);
+                    else picture.setRGB(x, y, rgb);
+                }
+            }
+        }
+        return picture;
+    }
+
+    // write the current picture as width() * height() row-major 0xRRGGBB ints
+    public void writeTo(File rgbFile) {
+        if (rgbFile == null) throw new IllegalArgumentException();
+        orient(true);
+
+        // rows are packed mWidth apart into the energy band, which is free outside of seam operations
+        IntBuffer target = mEnergyBand.duplicate().order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+        try (RandomAccessFile file = new RandomAccessFile(rgbFile, "rw")) {
+            FileChannel channel = file.getChannel();
+            channel.truncate(0);
+            for (int from = 0; from < mHeight; from += mBandRows) {
+                int to = Math.min(from + mBandRows, mHeight);
+                readPixelRows(mPixels, from, to);
+                for (int y = from; y < to; ++y) {
+                    mPixelInts.get((y - from) * mStride, mRow, 0, mWidth);
+                    target.put((y - from) * mWidth, mRow, 0, mWidth);
+                }
+                write(channel, mEnergyBand, 4L * from * mWidth, 0, 4 * (to - from) * mWidth);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // width of current picture
+    public int width() {
+        return mWidth;
+    }
+
+    // height of current picture
+    public int height() {
+        return mHeight;
+    }
+
+    // energy of pixel at column x and row y
+    public double energy(int x, int y) {
+        if (x < 0 || x >= mWidth || y < 0 || y >= mHeight) throw new IllegalArgumentException();
+        read(mEnergy, mScalar, bufferIndex(x, y) * Double.BYTES, Double.BYTES);
+        return mScalar.getDouble(0);
+    }
+
+    // sequence of indices for horizontal seam
+    public int[] findHorizontalSeam() {
+        orient(false);
+        return findSeam();
+    }
+
+    // sequence of indices for vertical seam
+    public int[] findVerticalSeam() {
+        orient(true);
+        return findSeam();
+    }
+
+    // the row-by-row DP of SeamCarver, streaming energy bands in and back-pointer bands out
+    private int[] findSeam() {
+        int length = bufferHeight();
+        int breadth = bufferWidth();
+        double[] previous = mRowDistTo;
+        double[] current = mNextRowDistTo;
+
+        for (int from = 0; from < length; from += mBandRows) {
+            int to = Math.min(from + mBandRows, length);
+            readEnergyRows(mEnergy, from, to);
+
+            for (int i = from; i < to; ++i) {
+                int row = (i - from) * mStride;
+                if (i == 0) {
+                    mEnergyDoubles.get(0, previous, 0, breadth);
+                    continue;
+                }
+                for (int j = 0; j < breadth; ++j) {
+                    int parent = j;
+                    if (j > 0 && previous[j - 1] < previous[parent]) parent = j - 1;
+                    if (j + 1 < breadth && previous[j + 1] < previous[parent]) parent = j + 1;
+                    current[j] = previous[parent] + mEnergyDoubles.get(row + j);
+                    mBackPointerBand.put((i - from) * breadth + j, (byte) (parent - j));
+                }
+                double[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            write(mBackPointers, mBackPointerBand, (long) from * breadth, 0, (to - from) * breadth);
+        }
+        mRowDistTo = previous;
+        mNextRowDistTo = current;
+
+        int end = 0;
+        for (int j = 1; j < breadth; ++j) {
+            if (previous[j] < previous[end]) end = j;
+        }
+
+        int[] seam = new int[length];
+        int lastBand = (length - 1) / mBandRows * mBandRows;
+        for (int from = lastBand; from >= 0; from -= mBandRows) {
+            int to = Math.min(from + mBandRows, length);
+            read(mBackPointers, mBackPointerBand, (long) from * breadth, (to - from) * breadth);
+            for (int i = to - 1; i >= from; --i) {
+                seam[i] = end;
+                if (i > 0) end += mBackPointerBand.get((i - from) * breadth + end);
+            }
+        }
+        return seam;
+    }
+
+    // remove horizontal seam from current picture
+    public void removeHorizontalSeam(int[] seam) {
+        verifySeam(seam, mWidth, mHeight);
+        orient(false);
+        removeSeam(seam);
+    }
+
+    // remove vertical seam from current picture
+    public void removeVerticalSeam(int[] seam) {
+        verifySeam(seam, mHeight, mWidth);
+        orient(true);
+        removeSeam(seam);
+    }
+
+    /*
+     * Compact every band in place by shifting each row left past the seam, then recompute the
+     * energies next to the seam in a second pass, once the halo rows of neighbouring bands have been
+     * shifted as well.
+     */
+    private void removeSeam(int[] seam) {
+        int width = bufferWidth() - 1;
+        int height = bufferHeight();
+
+        for (int from = 0; from < height; from += mBandRows) {
+            int to = Math.min(from + mBandRows, height);
+            readPixelRows(mPixels, from, to);
+            readEnergyRows(mEnergy, from, to);
+            double[] energyRow = mRowDistTo;
+            for (int y = from; y < to; ++y) {
+                int start = (y - from) * mStride + seam[y];
+                int length = width - seam[y];
+                mPixelInts.get(start + 1, mRow, 0, length);
+                mPixelInts.put(start, mRow, 0, length);
+                mEnergyDoubles.get(start + 1, energyRow, 0, length);
+                mEnergyDoubles.put(start, energyRow, 0, length);
+            }
+            writePixelRows(mPixels, from, to);
+            writeEnergyRows(mEnergy, from, to);
+        }
+
+        if (mTransposed) mHeight--;
+        else mWidth--;
+
+        for (int from = 0; from < height; from += mBandRows) {
+            int to = Math.min(from + mBandRows, height);
+            int first = Math.max(from - 1, 0);
+            readPixelRows(mPixels, first, Math.min(to + 1, height));
+            readEnergyRows(mEnergy, from, to);
+            for (int y = from; y < to; ++y) {
+                int low = seam[y];
+                int high = seam[y];
+                if (y > 0) {
+                    low = Math.min(low, seam[y - 1]);
+                    high = Math.max(high, seam[y - 1]);
+                }
+                if (y + 1 < height) {
+                    low = Math.min(low, seam[y + 1]);
+                    high = Math.max(high, seam[y + 1]);
+                }
+                low = Math.max(low - 1, 0);
+                high = Math.min(high, width - 1);
+
+                for (int x = low; x <= high; ++x) {
+                    mEnergyDoubles.put((y - from) * mStride + x, energyOf(mPixelInts, first, width, height, x, y));
+                }
+            }
+            writeEnergyRows(mEnergy, from, to);
+        }
+    }
+
+    private void verifySeam(int[] seam, int length, int breadth) {
+        if (seam == null || seam.length != length || breadth <= 1) throw new IllegalArgumentException();
+        for (int i = 0; i < seam.length; ++i) {
+            if (seam[i] < 0 || seam[i] >= breadth) throw new IllegalArgumentException();
+            if (i > 0 && Math.abs(seam[i] - seam[i - 1]) > 1) throw new IllegalArgumentException();
+        }
+    }
+
+    // close and delete the backing files
+    @Override
+    public void close() {
+        closeAll(channels(), mFiles, null);
+    }
+
+    private FileChannel[] channels() {
+        return new FileChannel[] { mPixels, mEnergy, mSparePixels, mSpareEnergy, mBackPointers };
+    }
+
+    /*
+     * Close every open channel and delete every created file, even when an earlier close fails. The
+     * first failure is thrown, or added to the given failure as suppressed when there is one.
+     */
+    private static void closeAll(FileChannel[] channels, File[] files, RuntimeException failure) {
+        RuntimeException first = failure;
+        for (FileChannel channel : channels) {
+            if (channel == null) continue;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                UncheckedIOException closeFailure = new UncheckedIOException(e);
+                if (first == null) first = closeFailure;
+                else first.addSuppressed(closeFailure);
+            }
+        }
+        for (File file : files) {
+            if (file != null) file.delete();
+        }
+        if (failure == null && first != null) throw first;
+    }
+
+    // unit testing (optional)
+    public static void main(String[] args) {
+        int width = 40;
+        int height = 30;
+
+        Picture p = new Picture(width, height);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                p.set(x, y, new Color(StdRandom.uniform(0, 256), StdRandom.uniform(0, 256), StdRandom.uniform(0, 256)));
+            }
+        }
+
+        SeamCarver carver = new SeamCarver(p);
+        try (FileBackedSeamCarver fileBacked = new FileBackedSeamCarver(p, new File(System.getProperty("java.io.tmpdir")), 4)) {
+            for (int i = 0; i < 10; ++i) {
+                boolean vertical = i % 3 != 0;
+                int[] seam = vertical ? carver.findVerticalSeam() : carver.findHorizontalSeam();
+                int[] fileBackedSeam = vertical ? fileBacked.findVerticalSeam() : fileBacked.findHorizontalSeam();
+                StdOut.println((vertical ? "Vertical" : "Horizontal") + " seams match: " + Arrays.equals(seam, fileBackedSeam));
+
+                if (vertical) {
+                    carver.removeVerticalSeam(seam);
+                    fileBacked.removeVerticalSeam(fileBackedSeam);
+                } else {
+                    carver.removeHorizontalSeam(seam);
+                    fileBacked.removeHorizontalSeam(fileBackedSeam);
+                }
+            }
+            StdOut.println("Width: " + fileBacked.width() + ", height: " + fileBacked.height()
+                    + ", energy(1, 1) matches: " + (fileBacked.energy(1, 1) == carver.energy(1, 1)));
+        }
+    }
+}
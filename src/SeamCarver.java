@@ -6,23 +6,496 @@ import edu.princeton.cs.algs4.StdOut;
 import edu.princeton.cs.algs4.StdRandom;
 
 import java.awt.Color;
+import java.lang.management.ManagementFactory;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 public class SeamCarver {
 
     private static final double EDGE_ENERGY = 1000.0;
-    private Picture mPicture;
+
+    // rows narrower than two strips are relaxed sequentially even when a pool is set
+    private static final int MIN_STRIP_WIDTH = 512;
+
+    // smallest number of pixels whose energies are computed as one parallel band
+    private static final int MIN_BAND_PIXELS = 1 << 16;
+
+    // pools shared by all carvers of the same parallelism, so that carvers are cheap to create
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    // approximate seam searches stop halving the energy pyramid below this width or height
+    private static final int MIN_PYRAMID_SIZE = 32;
 
     private int mWidth;
+    private int mHeight;
+
+    /*
+     * Packed 0xRRGGBB colours and dual-gradient energies, row-major with stride mStride. While
+     * mTransposed is set the buffers hold the transposed picture, so that horizontal seams are found
+     * and removed by the same row-by-row code as vertical ones. The orientation only changes when the
+     * caller switches between horizontal and vertical operations.
+     */
+    private int mStride;
+    private boolean mTransposed;
+    private int[] mRgb;
+    private double[] mEnergy;
+
+    // seam search and transposition scratch space, sized once for the original picture
+    private double[] mDistTo;
+    private int[] mEdgeTo;
+
+    /*
+     * In streaming mode there is no energy buffer or full distTo/edgeTo: each seam search computes
+     * energy rows on the fly into mRowEnergy, keeps two rows of distances and records each pixel's
+     * parent as a -1/0/+1 column offset in mBackPointers.
+     */
+    private final boolean mStreaming;
+    private byte[] mBackPointers;
+    private double[] mRowEnergy;
+    private double[] mRowDistTo;
+    private double[] mNextRowDistTo;
+
+    private final int mOriginalWidth;
+    private final int mOriginalHeight;
+
+    // pool relaxing column strips of each DP row in parallel; null for a sequential search
+    private ForkJoinPool mPool;
+
+    /*
+     * Seam index map from precomputeVerticalSeams: for each pixel of the mSeamIndexWidth-wide
+     * picture in mSeamIndexRgb, the order in which its vertical seam is removed, or
+     * Integer.MAX_VALUE if it is never removed. Any removal invalidates it.
+     */
+    private int[] mSeamIndex;
+    private int[] mSeamIndexRgb;
+    private int mSeamIndexWidth;
+    private int mSeamIndexSeams;
+
+    // snapshot returned by sharedPicture() until the next seam removal
+    private Picture mPicture;
+
+    /*
+     * Receiver of per-phase timings; while it is null the hot paths only pay for a null check. The
+     * energy computation of the constructor runs before any listener can be set, so its duration is
+     * kept and reported when one is.
+     */
+    private MetricsListener mListener;
+    private long mPixelsRelaxed;
+    private long mLoadNanos;
 
     // create a seam carver object based on the given picture
     public SeamCarver(Picture picture) {
+        this(picture, 1);
+    }
+
+    // create a seam carver object whose energies and seam searches run on the given number of threads
+    public SeamCarver(Picture picture, int parallelism) {
+        this(picture, parallelism, false);
+    }
+
+    /*
+     * create a seam carver object that, when streaming, keeps only the packed pixels and a byte of
+     * seam back-pointer per pixel instead of the energy, distTo and edgeTo buffers; streaming
+     * searches are always sequential, so a streaming carver only accepts a parallelism of 1
+     */
+    public SeamCarver(Picture picture, int parallelism, boolean streaming) {
+        this(picture, parallelism, streaming, null);
+    }
+
+    // create a sequential seam carver that reuses the given buffers when they are large enough
+    SeamCarver(Picture picture, Buffers buffers) {
+        this(picture, 1, false, buffers);
+    }
+
+    private SeamCarver(Picture picture, int parallelism, boolean streaming, Buffers buffers) {
         verifyObject(picture);
-        mPicture = new Picture(picture);
-        mWidth = mPicture.width();
+        mStreaming = streaming;
+        setParallelism(parallelism);
+        mWidth = picture.width();
+        mHeight = picture.height();
+        mOriginalWidth = mWidth;
+        mOriginalHeight = mHeight;
+
+        int size = mWidth * mHeight;
+        mStride = mWidth;
+        if (streaming) {
+            int breadth = Math.max(mWidth, mHeight);
+            mRgb = new int[size];
+            mBackPointers = new byte[size];
+            mRowEnergy = new double[breadth];
+            mRowDistTo = new double[breadth];
+            mNextRowDistTo = new double[breadth];
+        } else if (buffers != null && buffers.capacity() >= size) {
+            mRgb = buffers.rgb;
+            mEnergy = buffers.energy;
+            mDistTo = buffers.distTo;
+            mEdgeTo = buffers.edgeTo;
+        } else {
+            mRgb = new int[size];
+            mEnergy = new double[size];
+            mDistTo = new double[size];
+            mEdgeTo = new int[size];
+        }
+
+        long start = System.nanoTime();
+        loadBuffers(picture);
+        mLoadNanos = System.nanoTime() - start;
+    }
+
+    /*
+     * Receives the duration of every phase of a carver's work. Seam searches and removals report the
+     * bytes allocated by the calling thread while they ran (0 where the JVM cannot measure it, and not
+     * counting work done on a ForkJoinPool); a removal's duration includes the energy recomputation
+     * it reports separately.
+     */
+    public interface MetricsListener {
+
+        // energies of the given number of pixels were computed, all of them when full is set
+        void energyComputed(long nanos, long pixels, boolean full);
+
+        // a seam was found after relaxing the given number of pixels
+        void seamFound(long nanos, long pixelsRelaxed, long bytesAllocated);
+
+        void seamRemoved(long nanos, long bytesAllocated);
+
+        // sharedPicture() built a new snapshot of the given number of pixels
+        void pictureBuilt(long nanos, long pixels);
+    }
+
+    // per-thread allocation counter, only loaded once a listener is set
+    private static final class Allocation {
+
+        static final java.lang.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+        static final boolean SUPPORTED = THREADS instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported();
+
+        static long allocatedBytes() {
+            if (!SUPPORTED) return 0;
+            return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+
+    // report every later phase to the listener, or stop reporting when it is null
+    public void setMetricsListener(MetricsListener listener) {
+        mListener = listener;
+        if (listener != null && mLoadNanos >= 0) {
+            if (!mStreaming) listener.energyComputed(mLoadNanos, (long) mOriginalWidth * mOriginalHeight, true);
+            mLoadNanos = -1;
+        }
+    }
+
+    private long startTime() {
+        return mListener == null ? 0 : System.nanoTime();
+    }
+
+    private long startBytes() {
+        return mListener == null ? 0 : Allocation.allocatedBytes();
+    }
+
+    private int[] reportSeamFound(int[] seam, long start, long bytes, long relaxed) {
+        if (mListener != null) {
+            mListener.seamFound(System.nanoTime() - start, mPixelsRelaxed - relaxed, Allocation.allocatedBytes() - bytes);
+        }
+        return seam;
     }
 
+    // pixel, energy and scratch arrays that can be handed from one carver to the next
+    static final class Buffers {
+
+        final int[] rgb;
+        final double[] energy;
+        final double[] distTo;
+        final int[] edgeTo;
+
+        private Buffers(int[] rgb, double[] energy, double[] distTo, int[] edgeTo) {
+            this.rgb = rgb;
+            this.energy = energy;
+            this.distTo = distTo;
+            this.edgeTo = edgeTo;
+        }
+
+        int capacity() {
+            return rgb.length;
+        }
+    }
+
+    // hand the buffers of a non-streaming carver over for reuse; the carver must not be used afterwards
+    Buffers releaseBuffers() {
+        if (mStreaming) throw new IllegalStateException();
+        Buffers buffers = new Buffers(mRgb, mEnergy, mDistTo, mEdgeTo);
+        mRgb = null;
+        mEnergy = null;
+        mDistTo = null;
+        mEdgeTo = null;
+        return buffers;
+    }
+
+    // independent copy of the other carver's buffers, sharing its pool
+    private SeamCarver(SeamCarver other) {
+        mWidth = other.mWidth;
+        mHeight = other.mHeight;
+        mOriginalWidth = other.mOriginalWidth;
+        mOriginalHeight = other.mOriginalHeight;
+        mStreaming = other.mStreaming;
+        mStride = other.mStride;
+        mTransposed = other.mTransposed;
+        mPool = other.mPool;
+        mLoadNanos = -1;
+
+        mRgb = other.mRgb.clone();
+        if (mStreaming) {
+            mBackPointers = new byte[other.mBackPointers.length];
+            mRowEnergy = new double[other.mRowEnergy.length];
+            mRowDistTo = new double[other.mRowDistTo.length];
+            mNextRowDistTo = new double[other.mNextRowDistTo.length];
+        } else {
+            mEnergy = other.mEnergy.clone();
+            mDistTo = new double[other.mDistTo.length];
+            mEdgeTo = new int[other.mEdgeTo.length];
+        }
+    }
+
+    private void loadBuffers(Picture picture) {
+        for (int y = 0; y < mHeight; ++y) {
+            for (int x = 0; x < mWidth; ++x) {
+                mRgb[y * mStride + x] = picture.getRGB(x, y) & 0xFFFFFF;
+            }
+        }
+        if (mStreaming) return;
+
+        int bandRows = Math.max(1, MIN_BAND_PIXELS / mWidth);
+        if (mPool != null && mHeight > bandRows) mPool.invoke(new EnergyBand(0, mHeight, bandRows));
+        else computeEnergyRows(0, mHeight);
+    }
+
+    private void computeEnergyRows(int from, int to) {
+        for (int y = from; y < to; ++y) {
+            energyRow(mRgb, mStride, mWidth, mHeight, y, mEnergy, y * mStride);
+        }
+    }
+
+    // rows [from, to) of the energy buffer, split in halves down to bands of bandRows rows
+    private class EnergyBand extends RecursiveAction {
+
+        private final int from;
+        private final int to;
+        private final int bandRows;
+
+        EnergyBand(int from, int to, int bandRows) {
+            this.from = from;
+            this.to = to;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= bandRows) {
+                computeEnergyRows(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new EnergyBand(from, middle, bandRows), new EnergyBand(middle, to, bandRows));
+        }
+    }
+
+    /*
+     * Energies of a whole row at once. The interior loop has no border checks and works on unpacked
+     * channels with int arithmetic, which the JIT compiles to SIMD instructions; summing the squares
+     * as ints before the single sqrt gives exactly the value energyOf returns.
+     */
+    private static void energyRow(int[] rgb, int stride, int width, int height, int y, double[] energy, int offset) {
+        if (y == 0 || y == height - 1) {
+            Arrays.fill(energy, offset, offset + width, EDGE_ENERGY);
+            return;
+        }
+
+        energy[offset] = EDGE_ENERGY;
+        energy[offset + width - 1] = EDGE_ENERGY;
+        int row = y * stride;
+        for (int x = 1; x < width - 1; ++x) {
+            int p = row + x;
+            int left = rgb[p - 1];
+            int right = rgb[p + 1];
+            int up = rgb[p - stride];
+            int down = rgb[p + stride];
+
+            int redX = ((right >> 16) & 0xFF) - ((left >> 16) & 0xFF);
+            int greenX = ((right >> 8) & 0xFF) - ((left >> 8) & 0xFF);
+            int blueX = (right & 0xFF) - (left & 0xFF);
+            int redY = ((down >> 16) & 0xFF) - ((up >> 16) & 0xFF);
+            int greenY = ((down >> 8) & 0xFF) - ((up >> 8) & 0xFF);
+            int blueY = (down & 0xFF) - (up & 0xFF);
+
+            energy[offset + x] = Math.sqrt(redX * redX + greenX * greenX + blueX * blueX
+                    + redY * redY + greenY * greenY + blueY * blueY);
+        }
+    }
+
+    private int bufferWidth() {
+        return mTransposed ? mHeight : mWidth;
+    }
+
+    private int bufferHeight() {
+        return mTransposed ? mWidth : mHeight;
+    }
+
+    private int bufferIndex(int x, int y) {
+        return mTransposed ? x * mStride + y : y * mStride + x;
+    }
+
+    private void orient(boolean isVertical) {
+        if (mTransposed == isVertical) transpose();
+    }
+
+    // swap the buffers between picture and transposed layout, using the scratch arrays as targets
+    private void transpose() {
+        if (mStreaming) {
+            transposeInPlace();
+            return;
+        }
+        int width = bufferWidth();
+        int height = bufferHeight();
+        int stride = mTransposed ? mOriginalWidth : mOriginalHeight;
+
+        int[] rgb = mEdgeTo;
+        double[] energy = mDistTo;
+        for (int y = 0; y < height; ++y) {
+            int from = y * mStride;
+            for (int x = 0; x < width; ++x) {
+                rgb[x * stride + y] = mRgb[from + x];
+                energy[x * stride + y] = mEnergy[from + x];
+            }
+        }
+
+        mEdgeTo = mRgb;
+        mDistTo = mEnergy;
+        mRgb = rgb;
+        mEnergy = energy;
+        mStride = stride;
+        mTransposed = !mTransposed;
+    }
+
+    private static double energyOf(int[] rgb, int stride, int width, int height, int x, int y) {
+        if (x == 0 || x == width - 1 || y == 0 || y == height - 1) return EDGE_ENERGY;
+        int position = y * stride + x;
+        int deltaXSquared = gradientSquared(rgb[position - 1], rgb[position + 1]);
+        int deltaYSquared = gradientSquared(rgb[position - stride], rgb[position + stride]);
+        return Math.sqrt(deltaXSquared + deltaYSquared);
+    }
+
+    /*
+     * Without scratch buffers the pixels are transposed within mRgb: rows are packed to a dense
+     * matrix, the matrix is transposed by following the cycles of the index permutation, and the
+     * rows are spread out again to the new stride.
+     */
+    private void transposeInPlace() {
+        int width = bufferWidth();
+        int height = bufferHeight();
+        int stride = mTransposed ? mOriginalWidth : mOriginalHeight;
+
+        for (int y = 1; y < height; ++y) {
+            System.arraycopy(mRgb, y * mStride, mRgb, y * width, width);
+        }
+
+        // the pixel at dense index k moves to k * height mod (size - 1); the last one stays put
+        int size = width * height;
+        if (size > 2) {
+            BitSet moved = new BitSet(size);
+            for (int start = 1; start < size - 1; ++start) {
+                if (moved.get(start)) continue;
+                int k = start;
+                int value = mRgb[k];
+                do {
+                    k = (int) ((long) k * height % (size - 1));
+                    int next = mRgb[k];
+                    mRgb[k] = value;
+                    value = next;
+                    moved.set(k);
+                } while (k != start);
+            }
+        }
+
+        for (int x = width - 1; x > 0; --x) {
+            System.arraycopy(mRgb, x * height, mRgb, x * stride, height);
+        }
+
+        mStride = stride;
+        mTransposed = !mTransposed;
+    }
+
+    // remove a seam running top to bottom through the buffers, shifting each row left past it
+    private void removeSeamFromBuffers(int[] seam) {
+        long removalStart = startTime();
+        long bytes = startBytes();
+        mSeamIndex = null;
+        mSeamIndexRgb = null;
+        mPicture = null;
+
+        int width = bufferWidth() - 1;
+        int height = bufferHeight();
+        for (int r = 0; r < height; ++r) {
+            int start = r * mStride + seam[r];
+            System.arraycopy(mRgb, start + 1, mRgb, start, width - seam[r]);
+            if (!mStreaming) System.arraycopy(mEnergy, start + 1, mEnergy, start, width - seam[r]);
+        }
+
+        if (mTransposed) mHeight--;
+        else mWidth--;
+
+        if (!mStreaming) {
+            long energyStart = startTime();
+            long pixels = recomputeEnergyAround(seam);
+            if (mListener != null) mListener.energyComputed(System.nanoTime() - energyStart, pixels, false);
+        }
+        if (mListener != null) mListener.seamRemoved(System.nanoTime() - removalStart, Allocation.allocatedBytes() - bytes);
+    }
+
+    /*
+     * Only pixels whose horizontal neighbours changed, or whose vertical neighbours were shifted
+     * differently from themselves, get a new energy: per row that is the span between the seam
+     * positions of the neighbouring rows, widened by one on the left. The dual-gradient energy is
+     * symmetric, so this holds in the transposed layout too.
+     */
+    // returns the number of pixels recomputed
+    private long recomputeEnergyAround(int[] seam) {
+        int width = bufferWidth();
+        int height = bufferHeight();
+        long pixels = 0;
+
+        for (int y = 0; y < height; ++y) {
+            int low = seam[y];
+            int high = seam[y];
+            if (y > 0) {
+                low = Math.min(low, seam[y - 1]);
+                high = Math.max(high, seam[y - 1]);
+            }
+            if (y + 1 < height) {
+                low = Math.min(low, seam[y + 1]);
+                high = Math.max(high, seam[y + 1]);
+            }
+            low = Math.max(low - 1, 0);
+            high = Math.min(high, width - 1);
+
+            for (int x = low; x <= high; ++x) {
+                mEnergy[y * mStride + x] = energyOf(mRgb, mStride, width, height, x, y);
+            }
+            pixels += high - low + 1;
+        }
+        return pixels;
+    }
+
+    private static int gradientSquared(int a, int b) {
+        int red = ((a >> 16) & 0xFF) - ((b >> 16) & 0xFF);
+        int green = ((a >> 8) & 0xFF) - ((b >> 8) & 0xFF);
+        int blue = (a & 0xFF) - (b & 0xFF);
+        return red * red + green * green + blue * blue;
+    }
+
+    // object graph used only by the reference seam search
     private Pixel[][] getEnergyMatrixFrom(Picture pic) {
         Pixel[][] matrix = new Pixel[pic.height()][pic.width()];
 
@@ -57,40 +530,388 @@ public class SeamCarver {
 
     // current picture
     public Picture picture() {
-        return new Picture(mPicture);
+        return new Picture(sharedPicture());
+    }
+
+    /*
+     * Current picture without a copy, for pollers such as a UI that only read it. The snapshot is
+     * built once and returned by every call until the next seam removal, so it must not be modified.
+     */
+    public Picture sharedPicture() {
+        if (mPicture != null) return mPicture;
+
+        long start = startTime();
+        Picture picture = new Picture(mWidth, mHeight);
+        for (int y = 0; y < mHeight; ++y) {
+            for (int x = 0; x < mWidth; ++x) {
+                picture.setRGB(x, y, mRgb[bufferIndex(x, y)]);
+            }
+        }
+        mPicture = picture;
+        if (mListener != null) mListener.pictureBuilt(System.nanoTime() - start, (long) mWidth * mHeight);
+        return picture;
     }
 
     // width of current picture
     public int width() {
-        return mPicture.width();
+        return mWidth;
     }
 
     // height of current picture
     public int height() {
-        return mPicture.height();
+        return mHeight;
     }
 
     // energy of pixel at column x and row y
     public double energy(int x, int y) {
         verifyColumn(x);
         verifyRow(y);
-        int position = y * mPicture.width() + x;
-        return calculateEnergy(position, mPicture);
+        if (!mStreaming) return mEnergy[bufferIndex(x, y)];
+        if (mTransposed) return energyOf(mRgb, mStride, mHeight, mWidth, y, x);
+        return energyOf(mRgb, mStride, mWidth, mHeight, x, y);
     }
 
     // sequence of indices for horizontal seam
     public int[] findHorizontalSeam() {
+        return findSeam(false, new int[mWidth]);
+    }
+
+    // sequence of indices for vertical seam
+    public int[] findVerticalSeam() {
+        return findSeam(true, new int[mHeight]);
+    }
+
+    // exact seam search in the given direction, including any transposition it needs
+    private int[] findSeam(boolean isVertical, int[] seam) {
+        long start = startTime();
+        long bytes = startBytes();
+        long relaxed = mPixelsRelaxed;
+        orient(isVertical);
+        return reportSeamFound(findSeamTopological(seam), start, bytes, relaxed);
+    }
+
+    /*
+     * The pixel graph is a DAG whose topological order is simply row by row of the buffers, so a
+     * single relaxation pass computes distTo/edgeTo for every source at once.
+     */
+    private int[] findSeamTopological(int[] seam) {
+        mPixelsRelaxed += (long) bufferWidth() * bufferHeight();
+        if (mStreaming) return findSeamStreaming(seam);
+
+        int length = bufferHeight();
+        int breadth = bufferWidth();
+
+        double[] distTo = mDistTo;
+        int[] edgeTo = mEdgeTo;
+
+        for (int j = 0; j < breadth; ++j) {
+            distTo[j] = mEnergy[j];
+            edgeTo[j] = -1;
+        }
+
+        boolean parallel = mPool != null && breadth >= 2 * MIN_STRIP_WIDTH;
+        int stripWidth = parallel ? Math.max(MIN_STRIP_WIDTH, breadth / (4 * mPool.getParallelism())) : breadth;
+
+        for (int i = 1; i < length; ++i) {
+            if (parallel) mPool.invoke(new RowRelaxation(i, breadth, 0, breadth, stripWidth));
+            else relaxRow(i, breadth, 0, breadth);
+        }
+
+        int last = (length - 1) * breadth;
+        int end = 0;
+        for (int j = 1; j < breadth; ++j) {
+            if (distTo[last + j] < distTo[last + end]) end = j;
+        }
+
+        for (int i = length - 1; i >= 0; --i) {
+            seam[i] = end;
+            end = edgeTo[i * breadth + end];
+        }
+        return seam;
+    }
+
+    // the same relaxation as findSeamTopological, fused with computing each energy row as it is needed
+    private int[] findSeamStreaming(int[] seam) {
+        int length = bufferHeight();
+        int breadth = bufferWidth();
+
+        double[] previous = mRowDistTo;
+        double[] current = mNextRowDistTo;
+        double[] energy = mRowEnergy;
+        byte[] backPointers = mBackPointers;
+
+        energyRow(mRgb, mStride, breadth, length, 0, previous, 0);
+
+        for (int i = 1; i < length; ++i) {
+            energyRow(mRgb, mStride, breadth, length, i, energy, 0);
+            int row = i * breadth;
+            for (int j = 0; j < breadth; ++j) {
+                int parent = j;
+                if (j > 0 && previous[j - 1] < previous[parent]) parent = j - 1;
+                if (j + 1 < breadth && previous[j + 1] < previous[parent]) parent = j + 1;
+                current[j] = previous[parent] + energy[j];
+                backPointers[row + j] = (byte) (parent - j);
+            }
+            double[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        int end = 0;
+        for (int j = 1; j < breadth; ++j) {
+            if (previous[j] < previous[end]) end = j;
+        }
+
+        for (int i = length - 1; i >= 0; --i) {
+            seam[i] = end;
+            if (i > 0) end += backPointers[i * breadth + end];
+        }
+        return seam;
+    }
+
+    // relax the columns [from, to) of DP row i from row i - 1
+    private void relaxRow(int i, int breadth, int from, int to) {
+        double[] distTo = mDistTo;
+        int[] edgeTo = mEdgeTo;
+        int previous = (i - 1) * breadth;
+        int current = i * breadth;
+        int energy = i * mStride;
+
+        for (int j = from; j < to; ++j) {
+            int parent = j;
+            if (j > 0 && distTo[previous + j - 1] < distTo[previous + parent]) parent = j - 1;
+            if (j + 1 < breadth && distTo[previous + j + 1] < distTo[previous + parent]) parent = j + 1;
+            distTo[current + j] = distTo[previous + parent] + mEnergy[energy + j];
+            edgeTo[current + j] = parent;
+        }
+    }
+
+    // one DP row split into column strips; strips only read the previous row, so they are independent
+    private class RowRelaxation extends RecursiveAction {
+
+        private final int row;
+        private final int breadth;
+        private final int from;
+        private final int to;
+        private final int stripWidth;
+
+        RowRelaxation(int row, int breadth, int from, int to, int stripWidth) {
+            this.row = row;
+            this.breadth = breadth;
+            this.from = from;
+            this.to = to;
+            this.stripWidth = stripWidth;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= stripWidth) {
+                relaxRow(row, breadth, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RowRelaxation(row, breadth, from, middle, stripWidth),
+                    new RowRelaxation(row, breadth, middle, to, stripWidth));
+        }
+    }
+
+    /*
+     * Relax each DP row on a pool of the given parallelism; 1 restores the sequential search. Rows
+     * narrower than two strips of MIN_STRIP_WIDTH columns are always relaxed sequentially, and
+     * streaming carvers have no parallel search, so they reject any parallelism but 1.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1 || (mStreaming && parallelism != 1)) throw new IllegalArgumentException();
+        mPool = parallelism == 1 ? null : POOLS.computeIfAbsent(parallelism, ForkJoinPool::new);
+    }
+
+    // approximate horizontal seam for previews, refined from coarse levels within +-corridor pixels
+    public int[] findHorizontalSeamApproximate(int corridor) {
+        if (corridor < 1) throw new IllegalArgumentException();
+        long start = startTime();
+        long bytes = startBytes();
+        long relaxed = mPixelsRelaxed;
+        orient(false);
+        return reportSeamFound(findSeamApproximate(corridor), start, bytes, relaxed);
+    }
+
+    // approximate vertical seam for previews, refined from coarse levels within +-corridor pixels
+    public int[] findVerticalSeamApproximate(int corridor) {
+        if (corridor < 1) throw new IllegalArgumentException();
+        long start = startTime();
+        long bytes = startBytes();
+        long relaxed = mPixelsRelaxed;
+        orient(true);
+        return reportSeamFound(findSeamApproximate(corridor), start, bytes, relaxed);
+    }
+
+    // how much more energy the given horizontal seam has than the minimum one
+    public double horizontalSeamGap(int[] seam) {
+        verifyObject(seam);
+        verifyHorizontalSeam(seam);
+        return seamEnergy(seam, false) - seamEnergy(findHorizontalSeam(), false);
+    }
+
+    // how much more energy the given vertical seam has than the minimum one
+    public double verticalSeamGap(int[] seam) {
+        verifyObject(seam);
+        verifyVerticalSeam(seam);
+        return seamEnergy(seam, true) - seamEnergy(findVerticalSeam(), true);
+    }
+
+    // minimum seam among those staying within radius pixels of the given seam, used to track seams across frames
+    int[] findSeamNear(int[] seam, int radius, boolean isVertical) {
+        verifyObject(seam);
+        if (isVertical) verifyVerticalSeam(seam);
+        else verifyHorizontalSeam(seam);
+        if (radius < 0) throw new IllegalArgumentException();
+
+        long start = startTime();
+        long bytes = startBytes();
+        long relaxed = mPixelsRelaxed;
+        orient(isVertical);
+        int width = bufferWidth();
+        int height = bufferHeight();
+        int[] low = new int[height];
+        int[] high = new int[height];
+        for (int i = 0; i < height; ++i) {
+            low[i] = Math.max(seam[i] - radius, 0);
+            high[i] = Math.min(seam[i] + radius, width - 1);
+        }
+        return reportSeamFound(findSeamInCorridor(null, width, height, low, high), start, bytes, relaxed);
+    }
+
+    /*
+     * Build a pyramid of energies by summing 2x2 blocks, find the exact seam at the coarsest level and
+     * map it down one level at a time, each time only searching the pixels within corridor of the
+     * doubled coarse seam. Larger corridors get closer to the exact seam at a higher cost.
+     */
+    private int[] findSeamApproximate(int corridor) {
+        int[] widths = new int[32];
+        int[] heights = new int[32];
+        double[][] levels = new double[32][];
+        widths[0] = bufferWidth();
+        heights[0] = bufferHeight();
+
+        int depth = 0;
+        while (Math.min(widths[depth], heights[depth]) >= 2 * MIN_PYRAMID_SIZE) {
+            levels[depth + 1] = coarsen(levels[depth], widths[depth], heights[depth]);
+            widths[depth + 1] = (widths[depth] + 1) / 2;
+            heights[depth + 1] = (heights[depth] + 1) / 2;
+            depth++;
+        }
+
+        int[] low = new int[heights[depth]];
+        int[] high = new int[heights[depth]];
+        Arrays.fill(high, widths[depth] - 1);
+        int[] seam = findSeamInCorridor(levels[depth], widths[depth], heights[depth], low, high);
+
+        for (int level = depth - 1; level >= 0; --level) {
+            low = new int[heights[level]];
+            high = new int[heights[level]];
+            for (int i = 0; i < heights[level]; ++i) {
+                int centre = 2 * seam[i / 2];
+                low[i] = Math.max(centre - corridor, 0);
+                high[i] = Math.min(centre + 1 + corridor, widths[level] - 1);
+            }
+            seam = findSeamInCorridor(levels[level], widths[level], heights[level], low, high);
+        }
+        return seam;
+    }
+
+    // next pyramid level; level null is the energy of the buffers themselves
+    private double[] coarsen(double[] level, int width, int height) {
+        int coarseWidth = (width + 1) / 2;
+        double[] coarse = new double[coarseWidth * ((height + 1) / 2)];
+        double[] row = new double[width];
+
+        for (int y = 0; y < height; ++y) {
+            if (level != null) System.arraycopy(level, y * width, row, 0, width);
+            else if (mStreaming) energyRow(mRgb, mStride, width, height, y, row, 0);
+            else System.arraycopy(mEnergy, y * mStride, row, 0, width);
+
+            int target = y / 2 * coarseWidth;
+            for (int x = 0; x < width; ++x) {
+                coarse[target + x / 2] += row[x];
+            }
+        }
+        return coarse;
+    }
+
+    private double levelEnergy(double[] level, int width, int height, int x, int y) {
+        if (level != null) return level[y * width + x];
+        if (mStreaming) return energyOf(mRgb, mStride, width, height, x, y);
+        return mEnergy[y * mStride + x];
+    }
+
+    /*
+     * Row-by-row DP restricted to columns [low[i], high[i]] of each row i, with the same tie-breaking
+     * as findSeamTopological; consecutive corridors must overlap so that every row is reachable.
+     */
+    private int[] findSeamInCorridor(double[] level, int width, int height, int[] low, int[] high) {
+        int span = 0;
+        for (int i = 0; i < height; ++i) {
+            span = Math.max(span, high[i] - low[i] + 1);
+            mPixelsRelaxed += high[i] - low[i] + 1;
+        }
+
+        double[] distTo = new double[height * span];
+        byte[] backPointers = new byte[height * span];
+
+        for (int j = low[0]; j <= high[0]; ++j) {
+            distTo[j - low[0]] = levelEnergy(level, width, height, j, 0);
+        }
+
+        for (int i = 1; i < height; ++i) {
+            int previous = (i - 1) * span - low[i - 1];
+            int current = i * span - low[i];
+            for (int j = low[i]; j <= high[i]; ++j) {
+                int parent = j;
+                boolean reachable = j >= low[i - 1] && j <= high[i - 1];
+                if (j - 1 >= low[i - 1] && j - 1 <= high[i - 1]
+                        && (!reachable || distTo[previous + j - 1] < distTo[previous + parent])) {
+                    parent = j - 1;
+                    reachable = true;
+                }
+                if (j + 1 >= low[i - 1] && j + 1 <= high[i - 1]
+                        && (!reachable || distTo[previous + j + 1] < distTo[previous + parent])) {
+                    parent = j + 1;
+                    reachable = true;
+                }
+                distTo[current + j] = reachable
+                        ? distTo[previous + parent] + levelEnergy(level, width, height, j, i)
+                        : Double.POSITIVE_INFINITY;
+                backPointers[current + j] = (byte) (parent - j);
+            }
+        }
+
+        int last = (height - 1) * span - low[height - 1];
+        int end = low[height - 1];
+        for (int j = low[height - 1] + 1; j <= high[height - 1]; ++j) {
+            if (distTo[last + j] < distTo[last + end]) end = j;
+        }
+
+        int[] seam = new int[height];
+        for (int i = height - 1; i >= 0; --i) {
+            seam[i] = end;
+            end += backPointers[i * span - low[i] + end];
+        }
+        return seam;
+    }
+
+    // reference implementation of findHorizontalSeam, one queue-based search per source
+    private int[] findHorizontalSeamReference() {
         int[] seamHorizontalCoordinates = new int[0];
         double totalEnergy = -1.0;
 
-        Pixel[][] pixelGraph = getEnergyMatrixFrom(mPicture);
+        Pixel[][] pixelGraph = getEnergyMatrixFrom(sharedPicture());
 
         Stack<Integer> seam = new Stack<>();
-        double[] distTo = new double[mPicture.height() * mPicture.width()];
+        double[] distTo = new double[mHeight * mWidth];
         Arrays.fill(distTo, Double.POSITIVE_INFINITY);
 
-        for (int s = 0; s < mPicture.height(); s += 2) {
-            Pixel source = pixelGraph[row(s * mPicture.width())][col(s * mPicture.width())];
+        for (int s = 0; s < mHeight; s++) {
+            Pixel source = pixelGraph[row(s * mWidth)][col(s * mWidth)];
 
             seam = findSeam(pixelGraph, source, seam, distTo, false);
 
@@ -109,18 +930,18 @@ public class SeamCarver {
         return seamHorizontalCoordinates;
     }
 
-    // sequence of indices for vertical seam
-    public int[] findVerticalSeam() {
+    // reference implementation of findVerticalSeam, one queue-based search per source
+    private int[] findVerticalSeamReference() {
         int[] seamVerticalCoordinates = new int[0];
         double totalEnergy = -1.0;
 
-        Pixel[][] pixelGraph = getEnergyMatrixFrom(mPicture);
+        Pixel[][] pixelGraph = getEnergyMatrixFrom(sharedPicture());
 
         Stack<Integer> seam = new Stack<>();
-        double[] distTo = new double[mPicture.height() * mPicture.width()];
+        double[] distTo = new double[mHeight * mWidth];
         Arrays.fill(distTo, Double.POSITIVE_INFINITY);
 
-        for (int s = 0; s < mPicture.width(); s++) {
+        for (int s = 0; s < mWidth; s++) {
 
             seam = findSeam(pixelGraph, pixelGraph[row(s)][col(s)], seam, distTo, true);
 
@@ -198,93 +1019,119 @@ public class SeamCarver {
         return coordinates;
     }
 
-    // remove horizontal seam from current picture
-    public void removeHorizontalSeam(int[] seam) {
-        verifyObject(seam);
-        verifyHorizontalSeam(seam);
-        verifyPictureDimension(mPicture.height());
+    /*
+     * Carve the picture down to the given size in one batch: seams are found and removed directly on
+     * the buffers, without per-seam validation or allocation, and all seams of one direction are
+     * removed before the other, in whichever order touches fewer pixels.
+     */
+    public void carveTo(int width, int height) {
+        if (width < 1 || width > mWidth || height < 1 || height > mHeight) throw new IllegalArgumentException();
 
-        int newWidth = mPicture.width();
-        int newHeight = mPicture.height() - 1;
+        boolean verticalFirst = carvingCost(width, height, true) <= carvingCost(width, height, false);
+        int[] seam = new int[Math.max(mOriginalWidth, mOriginalHeight)];
 
-        Picture pic = new Picture(newWidth, newHeight);
-        mWidth = newWidth;
+        carve(verticalFirst, verticalFirst ? mWidth - width : mHeight - height, seam);
+        carve(!verticalFirst, verticalFirst ? mHeight - height : mWidth - width, seam);
+    }
 
-        for (int c = 0; c < mPicture.width(); ++c) {
-            boolean foundCrack = false;
-            for (int r = 0; r < mPicture.height(); ++r) {
-                if (r != seam[c]) {
-                    if (foundCrack) {
-                        pic.set(c, r - 1, mPicture.get(c, r));
-                    }
-                    else {
-                        pic.set(c, r, mPicture.get(c, r));
-                    }
-                } else foundCrack = true;
-            }
+    private void carve(boolean isVertical, int seams, int[] seam) {
+        if (seams == 0) return;
+        for (int i = 0; i < seams; ++i) {
+            removeSeamFromBuffers(findSeam(isVertical, seam));
         }
-
-        mPicture = pic;
     }
 
-    // remove vertical seam from current picture
-    public void removeVerticalSeam(int[] seam) {
-        verifyObject(seam);
-        verifyVerticalSeam(seam);
-        verifyPictureDimension(mPicture.width());
-        int width = mPicture.width() - 1;
-        int height = mPicture.height();
+    // pixels visited by seam searches and transpositions when carving in the given order
+    private long carvingCost(int targetWidth, int targetHeight, boolean verticalFirst) {
+        long width = mWidth;
+        long height = mHeight;
+        long cost = 0;
 
-        Picture pic = new Picture(width, height);
-        mWidth = width;
+        if (verticalFirst == mTransposed) cost += width * height;
+        for (int pass = 0; pass < 2; ++pass) {
+            if (verticalFirst == (pass == 0)) {
+                for (; width > targetWidth; --width) cost += width * height;
+            } else {
+                for (; height > targetHeight; --height) cost += width * height;
+            }
+        }
+        return cost;
+    }
 
-        for (int r = 0; r < mPicture.height(); ++r) {
-            boolean foundCrack = false;
-            for (int c = 0; c < mPicture.width(); ++c) {
-                if (c != seam[r]) {
-                    if (foundCrack) {
-                        pic.set(c - 1, r, mPicture.get(c, r));
-                    }
-                    else {
-                        pic.set(c, r, mPicture.get(c, r));
-                    }
-                } else foundCrack = true;
+    /*
+     * Remove the next seams vertical seams from a copy of this carver once, recording in which order
+     * every pixel goes, so that pictureOfWidth can later produce any width down to width() - seams
+     * without searching again. The current picture itself is left unchanged.
+     */
+    public void precomputeVerticalSeams(int seams) {
+        if (seams < 0 || seams >= mWidth) throw new IllegalArgumentException();
+
+        int width = mWidth;
+        int height = mHeight;
+        int[] rgb = new int[width * height];
+        int[] columns = new int[width * height];
+        int[] seamIndex = new int[width * height];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                rgb[y * width + x] = mRgb[bufferIndex(x, y)];
+                columns[y * width + x] = x;
+            }
+        }
+        Arrays.fill(seamIndex, Integer.MAX_VALUE);
+
+        SeamCarver carver = new SeamCarver(this);
+        carver.orient(true);
+        int[] seam = new int[height];
+        for (int k = 0; k < seams; ++k) {
+            carver.findSeamTopological(seam);
+            for (int y = 0; y < height; ++y) {
+                int start = y * width + seam[y];
+                seamIndex[y * width + columns[start]] = k;
+                System.arraycopy(columns, start + 1, columns, start, width - k - seam[y] - 1);
             }
+            carver.removeSeamFromBuffers(seam);
         }
 
-        mPicture = pic;
+        mSeamIndex = seamIndex;
+        mSeamIndexRgb = rgb;
+        mSeamIndexWidth = width;
+        mSeamIndexSeams = seams;
     }
 
-    private double calculateEnergy(int position, Picture pic) {
-        if (col(position) == 0 || col(position) == pic.width() - 1
-                || row(position) == 0 || row(position) == pic.height() - 1) {
-            return EDGE_ENERGY;
+    // the current picture narrowed to the given width by filtering with the precomputed seam index map
+    public Picture pictureOfWidth(int width) {
+        if (mSeamIndex == null) throw new IllegalStateException();
+        int removed = mSeamIndexWidth - width;
+        if (removed < 0 || removed > mSeamIndexSeams) throw new IllegalArgumentException();
+
+        Picture picture = new Picture(width, mHeight);
+        for (int y = 0; y < mHeight; ++y) {
+            int x = 0;
+            for (int p = y * mSeamIndexWidth; p < (y + 1) * mSeamIndexWidth; ++p) {
+                if (mSeamIndex[p] >= removed) picture.setRGB(x++, y, mSeamIndexRgb[p]);
+            }
         }
-        double deltaXSquared = getDeltaXSquared(position, pic);
-        double deltaYSquared = getDeltaYSquared(position, pic);
-        return Math.sqrt(deltaXSquared + deltaYSquared);
+        return picture;
     }
 
-    private double getDeltaXSquared(int position, Picture pic) {
-        int col = col(position);
-        int row = row(position);
-
-        int red = pic.get(col + 1, row).getRed() - pic.get(col - 1, row).getRed();
-        int green = pic.get(col + 1, row).getGreen() - pic.get(col - 1, row).getGreen();
-        int blue = pic.get(col + 1, row).getBlue() - pic.get(col - 1, row).getBlue();
+    // remove horizontal seam from current picture
+    public void removeHorizontalSeam(int[] seam) {
+        verifyObject(seam);
+        verifyHorizontalSeam(seam);
+        verifyPictureDimension(mHeight);
 
-        return Math.pow(red, 2) + Math.pow(green, 2) + Math.pow(blue, 2);
+        orient(false);
+        removeSeamFromBuffers(seam);
     }
 
-    private double getDeltaYSquared(int position, Picture pic) {
-        int col = col(position);
-        int row = row(position);
-
-        int red = pic.get(col, row + 1).getRed() - pic.get(col, row - 1).getRed();
-        int green = pic.get(col, row + 1).getGreen() - pic.get(col, row - 1).getGreen();
-        int blue = pic.get(col, row + 1).getBlue() - pic.get(col, row - 1).getBlue();
+    // remove vertical seam from current picture
+    public void removeVerticalSeam(int[] seam) {
+        verifyObject(seam);
+        verifyVerticalSeam(seam);
+        verifyPictureDimension(mWidth);
 
-        return Math.pow(red, 2) + Math.pow(green, 2) + Math.pow(blue, 2);
+        orient(true);
+        removeSeamFromBuffers(seam);
     }
 
     private void verifyPictureDimension(int dimension) {
@@ -298,7 +1145,7 @@ public class SeamCarver {
     private void verifyEachHorizontal(int[] seam) {
         int prev = -1;
         for (int node : seam) {
-            if (node < 0 || node >= mPicture.height()) throw new IllegalArgumentException();
+            if (node < 0 || node >= mHeight) throw new IllegalArgumentException();
             if (prev == -1) prev = node;
             else {
                 if (node == prev + 1 || node == prev || node == prev - 1) prev = node;
@@ -310,7 +1157,7 @@ public class SeamCarver {
     private void verifyEachVertical(int[] seam) {
         int prev = -1;
         for (int node : seam) {
-            if (node < 0 || node >= mPicture.width()) throw new IllegalArgumentException();
+            if (node < 0 || node >= mWidth) throw new IllegalArgumentException();
             if (prev == -1) prev = node;
             else {
                 if (node == prev + 1 || node == prev || node == prev - 1) prev = node;
@@ -321,21 +1168,21 @@ public class SeamCarver {
     }
 
     private void verifyVerticalSeam(int[] seam) {
-        if (seam.length < mPicture.height() || seam.length > mPicture.height()) throw new IllegalArgumentException();
+        if (seam.length < mHeight || seam.length > mHeight) throw new IllegalArgumentException();
         verifyEachVertical(seam);
     }
 
     private void verifyHorizontalSeam(int[] seam) {
-        if (seam.length < mPicture.width() || seam.length > mPicture.width()) throw new IllegalArgumentException();
+        if (seam.length < mWidth || seam.length > mWidth) throw new IllegalArgumentException();
         verifyEachHorizontal(seam);
     }
 
     private void verifyColumn(int x) {
-        if (x < 0 || x >= mPicture.width()) throw new IllegalArgumentException();
+        if (x < 0 || x >= mWidth) throw new IllegalArgumentException();
     }
 
     private void verifyRow(int y) {
-        if (y < 0 || y >= mPicture.height()) throw new IllegalArgumentException();
+        if (y < 0 || y >= mHeight) throw new IllegalArgumentException();
     }
 
     private class Pixel {
@@ -429,6 +1276,14 @@ public class SeamCarver {
         }
     }
 
+    double seamEnergy(int[] seam, boolean isVertical) {
+        double total = 0.0;
+        for (int i = 0; i < seam.length; ++i) {
+            total += isVertical ? energy(seam[i], i) : energy(i, seam[i]);
+        }
+        return total;
+    }
+
     // unit testing (optional)
     public static void main(String[] args) {
 
@@ -448,6 +1303,14 @@ public class SeamCarver {
 
         SeamCarver carver = new SeamCarver(p);
 
+        double verticalEnergy = carver.seamEnergy(carver.findVerticalSeam(), true);
+        double horizontalEnergy = carver.seamEnergy(carver.findHorizontalSeam(), false);
+        StdOut.println("Vertical seam energy (dp <= reference): " + verticalEnergy + " <= "
+                + carver.seamEnergy(carver.findVerticalSeamReference(), true));
+        StdOut.println("Horizontal seam energy (dp <= reference): " + horizontalEnergy + " <= "
+                + carver.seamEnergy(carver.findHorizontalSeamReference(), false));
+        StdOut.println();
+
         /* for (int r = 0; r < p.height(); ++r) {
             for (int c = 0; c < p.width(); ++c) {
                 StdOut.print("[" + carver.pixelGraph[r][c].energy + "]");
@@ -482,8 +1345,8 @@ public class SeamCarver {
         StdOut.println("Height: " + carver.height());
         StdOut.println();
 
-        /* for (int r = 0; r < carver.mPicture.height(); ++r) {
-            for (int c = 0; c < carver.mPicture.width(); ++c) {
+        /* for (int r = 0; r < carver.height(); ++r) {
+            for (int c = 0; c < carver.width(); ++c) {
                 StdOut.print("[" + carver.pixelGraph[r][c].energy + "]");
             }
             StdOut.println();
@@ -501,5 +1364,13 @@ public class SeamCarver {
         StdOut.println("Width: " + carver.width());
         StdOut.println("Height: " + carver.height());
         StdOut.println();
+        StdOut.println("Approximate vertical seam gap: " + carver.verticalSeamGap(carver.findVerticalSeamApproximate(1)));
+
+        SeamCarver preview = new SeamCarver(p);
+        preview.precomputeVerticalSeams(3);
+        StdOut.println("Precomputed width 2: " + preview.pictureOfWidth(2).width() + "x" + preview.pictureOfWidth(2).height());
+
+        carver.carveTo(2, 1);
+        StdOut.println("Carved to width: " + carver.width() + ", height: " + carver.height());
     }
 }
@@ -0,0 +1,250 @@
+import edu.princeton.cs.algs4.Picture;
+import edu.princeton.cs.algs4.StdOut;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Micro-benchmarks for the SeamCarver hot paths on synthetic pictures from 100x100 up to 4K, built
+ * from fixed seeds so that runs are comparable. Every case runs for a number of warm-up iterations
+ * and then measured iterations, and reports operations per second plus the bytes allocated per
+ * operation and per second by the benchmarking thread (work done on a carver's ForkJoinPool is timed
+ * but its allocations are not counted, and allocations show as n/a on JVMs that cannot measure
+ * them). Setup such as finding the seam to remove is excluded from the timings, and an iteration
+ * stops early once its untimed setup has taken too long.
+ *
+ * Arguments are optional filters: only cases whose "engine/operation/size" name contains one of
+ * them are run, e.g. "findVerticalSeam" or "streaming/" or "3840x2160".
+ */
+public class SeamCarverBenchmark {
+
+    private static final int[][] SIZES = { { 100, 100 }, { 640, 480 }, { 1920, 1080 }, { 3840, 2160 } };
+    private static final long SEED = 20240101L;
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 1_000_000_000L;
+
+    // seams per direction removed by the resize cases
+    private static final int RESIZE_SEAMS = 16;
+
+    // per-thread allocation counter; allocations are reported as unavailable where the JVM has none
+    private static final java.lang.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = THREADS instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported();
+
+    // consumes results so that the JIT cannot drop the benchmarked work
+    private static long sSink;
+
+    // ways of constructing a SeamCarver that are compared side by side
+    private enum Engine {
+        SEQUENTIAL, PARALLEL, STREAMING, APPROXIMATE;
+
+        SeamCarver create(Picture picture) {
+            switch (this) {
+                case PARALLEL:
+                    return new SeamCarver(picture, Runtime.getRuntime().availableProcessors());
+                case STREAMING:
+                    return new SeamCarver(picture, 1, true);
+                default:
+                    return new SeamCarver(picture);
+            }
+        }
+
+        int[] findVerticalSeam(SeamCarver carver) {
+            return this == APPROXIMATE ? carver.findVerticalSeamApproximate(2) : carver.findVerticalSeam();
+        }
+
+        int[] findHorizontalSeam(SeamCarver carver) {
+            return this == APPROXIMATE ? carver.findHorizontalSeamApproximate(2) : carver.findHorizontalSeam();
+        }
+
+        String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    // one benchmarked operation; before() runs untimed ahead of every call to operation()
+    private abstract static class Case {
+
+        final String name;
+
+        Case(String name) {
+            this.name = name;
+        }
+
+        void before() {}
+
+        abstract long operation();
+    }
+
+    private static Picture syntheticPicture(int width, int height) {
+        Random random = new Random(SEED ^ ((long) width << 32 | height));
+        Picture picture = new Picture(width, height);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int red = (x * 255 / width + random.nextInt(32)) & 0xFF;
+                int green = (y * 255 / height + random.nextInt(32)) & 0xFF;
+                int blue = random.nextInt(256);
+                picture.setRGB(x, y, red << 16 | green << 8 | blue);
+            }
+        }
+        return picture;
+    }
+
+    private static List<Case> cases(Picture picture, Engine engine) {
+        String suffix = "/" + picture.width() + "x" + picture.height();
+        String prefix = engine.label() + "/";
+        List<Case> cases = new ArrayList<>();
+
+        // a streaming carver computes no energies when constructed, so it would only time pixel loading
+        if (engine != Engine.STREAMING) {
+            cases.add(new Case(prefix + "energy" + suffix) {
+                long operation() {
+                    return (long) engine.create(picture).energy(picture.width() / 2, picture.height() / 2);
+                }
+            });
+        }
+
+        cases.add(new Case(prefix + "findVerticalSeam" + suffix) {
+            SeamCarver carver;
+
+            void before() {
+                if (carver == null) carver = engine.create(picture);
+            }
+
+            long operation() {
+                return engine.findVerticalSeam(carver)[0];
+            }
+        });
+        cases.add(new Case(prefix + "findHorizontalSeam" + suffix) {
+            SeamCarver carver;
+
+            void before() {
+                if (carver == null) carver = engine.create(picture);
+            }
+
+            long operation() {
+                return engine.findHorizontalSeam(carver)[0];
+            }
+        });
+
+        cases.add(new Case(prefix + "removeVerticalSeam" + suffix) {
+            SeamCarver carver;
+            int[] seam;
+
+            void before() {
+                if (carver == null || carver.width() <= picture.width() / 2) carver = engine.create(picture);
+                seam = engine.findVerticalSeam(carver);
+            }
+
+            long operation() {
+                carver.removeVerticalSeam(seam);
+                return carver.width();
+            }
+        });
+        cases.add(new Case(prefix + "removeHorizontalSeam" + suffix) {
+            SeamCarver carver;
+            int[] seam;
+
+            void before() {
+                if (carver == null || carver.height() <= picture.height() / 2) carver = engine.create(picture);
+                seam = engine.findHorizontalSeam(carver);
+            }
+
+            long operation() {
+                carver.removeHorizontalSeam(seam);
+                return carver.height();
+            }
+        });
+
+        int width = Math.max(1, picture.width() - RESIZE_SEAMS);
+        int height = Math.max(1, picture.height() - RESIZE_SEAMS);
+        cases.add(new Case(prefix + "resizeLoop" + suffix) {
+            long operation() {
+                SeamCarver carver = engine.create(picture);
+                while (carver.width() > width) carver.removeVerticalSeam(engine.findVerticalSeam(carver));
+                while (carver.height() > height) carver.removeHorizontalSeam(engine.findHorizontalSeam(carver));
+                return carver.picture().width();
+            }
+        });
+        if (engine != Engine.APPROXIMATE) {
+            cases.add(new Case(prefix + "carveTo" + suffix) {
+                long operation() {
+                    SeamCarver carver = engine.create(picture);
+                    carver.carveTo(width, height);
+                    return carver.picture().width();
+                }
+            });
+        }
+        return cases;
+    }
+
+    private static boolean selected(String name, String[] filters) {
+        if (filters.length == 0) return true;
+        for (String filter : filters) {
+            if (name.contains(filter)) return true;
+        }
+        return false;
+    }
+
+    private static void run(Case benchmark) {
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i) iteration(benchmark);
+
+        long operations = 0;
+        long nanos = 0;
+        long bytes = 0;
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; ++i) {
+            long[] result = iteration(benchmark);
+            operations += result[0];
+            nanos += result[1];
+            bytes += result[2];
+        }
+
+        double seconds = nanos / 1e9;
+        if (ALLOCATION_SUPPORTED) {
+            StdOut.printf("%-44s %12.3f ops/s %14.1f B/op %10.1f MB/s%n", benchmark.name,
+                    operations / seconds, (double) bytes / operations, bytes / seconds / (1 << 20));
+        } else {
+            StdOut.printf("%-44s %12.3f ops/s %14s B/op %10s MB/s%n", benchmark.name, operations / seconds, "n/a", "n/a");
+        }
+    }
+
+    private static long allocatedBytes(long thread) {
+        if (!ALLOCATION_SUPPORTED) return 0;
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(thread);
+    }
+
+    // operations, timed nanoseconds and allocated bytes of one iteration
+    private static long[] iteration(Case benchmark) {
+        long thread = Thread.currentThread().getId();
+        long operations = 0;
+        long nanos = 0;
+        long bytes = 0;
+        long deadline = System.nanoTime() + 5 * ITERATION_NANOS;
+        do {
+            benchmark.before();
+            long allocated = allocatedBytes(thread);
+            long start = System.nanoTime();
+            sSink += benchmark.operation();
+            nanos += System.nanoTime() - start;
+            bytes += allocatedBytes(thread) - allocated;
+            operations++;
+        } while (nanos < ITERATION_NANOS && System.nanoTime() < deadline);
+        return new long[] { operations, nanos, bytes };
+    }
+
+    public static void main(String[] args) {
+        for (int[] size : SIZES) {
+            Picture picture = syntheticPicture(size[0], size[1]);
+            for (Engine engine : Engine.values()) {
+                for (Case benchmark : cases(picture, engine)) {
+                    if (selected(benchmark.name, args)) run(benchmark);
+                }
+            }
+        }
+        StdOut.println("sink: " + sSink);
+    }
+}
@@ -0,0 +1,231 @@
+import edu.princeton.cs.algs4.Picture;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+ * Collects the per-phase metrics of any number of carvers, e.g. all carvers of a SeamCarverService:
+ * counters plus latency histograms for energy computation, seam search, seam removal and picture
+ * snapshots. Latencies are kept in power-of-two buckets of nanoseconds, so percentiles are upper
+ * bounds within a factor of two. Safe to share between threads, and visible in JConsole once
+ * registered.
+ */
+public class SeamCarverMetrics implements SeamCarver.MetricsListener, SeamCarverMetricsMBean {
+
+    // latency histogram whose bucket i counts durations in [2^i, 2^(i+1)) nanoseconds
+    private static final class Histogram {
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(64);
+        private final LongAdder mCount = new LongAdder();
+        private final LongAdder mTotal = new LongAdder();
+
+        void record(long nanos) {
+            mBuckets.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(nanos, 1)));
+            mCount.increment();
+            mTotal.add(nanos);
+        }
+
+        long count() {
+            return mCount.sum();
+        }
+
+        long total() {
+            return mTotal.sum();
+        }
+
+        // upper bound of the bucket holding the given quantile, 0 when nothing was recorded
+        long percentile(double quantile) {
+            long count = 0;
+            for (int i = 0; i < 64; ++i) count += mBuckets.get(i);
+            if (count == 0) return 0;
+
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < 64; ++i) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) return i == 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+            return Long.MAX_VALUE;
+        }
+
+        void reset() {
+            for (int i = 0; i < 64; ++i) mBuckets.set(i, 0);
+            mCount.reset();
+            mTotal.reset();
+        }
+    }
+
+    private final Histogram mEnergy = new Histogram();
+    private final Histogram mSearch = new Histogram();
+    private final Histogram mRemoval = new Histogram();
+    private final Histogram mPicture = new Histogram();
+
+    private final LongAdder mEnergyPixels = new LongAdder();
+    private final LongAdder mPixelsRelaxed = new LongAdder();
+    private final LongAdder mSeamBytes = new LongAdder();
+
+    @Override
+    public void energyComputed(long nanos, long pixels, boolean full) {
+        mEnergy.record(nanos);
+        mEnergyPixels.add(pixels);
+    }
+
+    @Override
+    public void seamFound(long nanos, long pixelsRelaxed, long bytesAllocated) {
+        mSearch.record(nanos);
+        mPixelsRelaxed.add(pixelsRelaxed);
+        mSeamBytes.add(bytesAllocated);
+    }
+
+    @Override
+    public void seamRemoved(long nanos, long bytesAllocated) {
+        mRemoval.record(nanos);
+        mSeamBytes.add(bytesAllocated);
+    }
+
+    @Override
+    public void pictureBuilt(long nanos, long pixels) {
+        mPicture.record(nanos);
+    }
+
+    // make these metrics visible to JMX clients under SeamCarver:type=Metrics,name=<name>
+    public ObjectName register(String name) {
+        if (name == null) throw new IllegalArgumentException();
+        try {
+            ObjectName objectName = new ObjectName("SeamCarver:type=Metrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public long getEnergyComputations() {
+        return mEnergy.count();
+    }
+
+    @Override
+    public long getEnergyPixels() {
+        return mEnergyPixels.sum();
+    }
+
+    @Override
+    public long getEnergyNanos() {
+        return mEnergy.total();
+    }
+
+    @Override
+    public long getEnergyP99Nanos() {
+        return mEnergy.percentile(0.99);
+    }
+
+    @Override
+    public long getSeamSearches() {
+        return mSearch.count();
+    }
+
+    @Override
+    public long getSeamSearchNanos() {
+        return mSearch.total();
+    }
+
+    @Override
+    public long getSeamSearchP50Nanos() {
+        return mSearch.percentile(0.5);
+    }
+
+    @Override
+    public long getSeamSearchP99Nanos() {
+        return mSearch.percentile(0.99);
+    }
+
+    @Override
+    public long getPixelsRelaxed() {
+        return mPixelsRelaxed.sum();
+    }
+
+    // bytes allocated by searches and removals per seam removed
+    @Override
+    public double getBytesAllocatedPerSeam() {
+        long seams = mRemoval.count();
+        return seams == 0 ? 0 : (double) mSeamBytes.sum() / seams;
+    }
+
+    @Override
+    public long getSeamRemovals() {
+        return mRemoval.count();
+    }
+
+    @Override
+    public long getSeamRemovalNanos() {
+        return mRemoval.total();
+    }
+
+    @Override
+    public long getSeamRemovalP50Nanos() {
+        return mRemoval.percentile(0.5);
+    }
+
+    @Override
+    public long getSeamRemovalP99Nanos() {
+        return mRemoval.percentile(0.99);
+    }
+
+    @Override
+    public long getPictureBuilds() {
+        return mPicture.count();
+    }
+
+    @Override
+    public long getPictureBuildNanos() {
+        return mPicture.total();
+    }
+
+    @Override
+    public void reset() {
+        mEnergy.reset();
+        mSearch.reset();
+        mRemoval.reset();
+        mPicture.reset();
+        mEnergyPixels.reset();
+        mPixelsRelaxed.reset();
+        mSeamBytes.reset();
+    }
+
+    // unit testing (optional)
+    public static void main(String[] args) {
+        int width = 300;
+        int height = 200;
+        Picture picture = new Picture(width, height);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                picture.setRGB(x, y, StdRandom.uniform(0, 1 << 24));
+            }
+        }
+
+        SeamCarverMetrics metrics = new SeamCarverMetrics();
+        metrics.register("main");
+
+        SeamCarver carver = new SeamCarver(picture);
+        carver.setMetricsListener(metrics);
+        for (int i = 0; i < 50; ++i) carver.removeVerticalSeam(carver.findVerticalSeam());
+        carver.carveTo(200, 150);
+        carver.picture();
+
+        StdOut.printf("energy:   %d computations, %d pixels, %.3f ms, p99 %d ns%n", metrics.getEnergyComputations(),
+                metrics.getEnergyPixels(), metrics.getEnergyNanos() / 1e6, metrics.getEnergyP99Nanos());
+        StdOut.printf("search:   %d seams, %d pixels relaxed, %.3f ms, p50 %d ns, p99 %d ns%n",
+                metrics.getSeamSearches(), metrics.getPixelsRelaxed(), metrics.getSeamSearchNanos() / 1e6,
+                metrics.getSeamSearchP50Nanos(), metrics.getSeamSearchP99Nanos());
+        StdOut.printf("removal:  %d seams, %.3f ms, p50 %d ns, p99 %d ns, %.1f B/seam%n", metrics.getSeamRemovals(),
+                metrics.getSeamRemovalNanos() / 1e6, metrics.getSeamRemovalP50Nanos(),
+                metrics.getSeamRemovalP99Nanos(), metrics.getBytesAllocatedPerSeam());
+        StdOut.printf("picture:  %d builds, %.3f ms%n", metrics.getPictureBuilds(), metrics.getPictureBuildNanos() / 1e6);
+    }
+}
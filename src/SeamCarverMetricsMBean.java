@@ -0,0 +1,37 @@
+// attributes of SeamCarverMetrics as seen through JMX; latencies in nanoseconds
+public interface SeamCarverMetricsMBean {
+
+    long getEnergyComputations();
+
+    long getEnergyPixels();
+
+    long getEnergyNanos();
+
+    long getEnergyP99Nanos();
+
+    long getSeamSearches();
+
+    long getSeamSearchNanos();
+
+    long getSeamSearchP50Nanos();
+
+    long getSeamSearchP99Nanos();
+
+    long getPixelsRelaxed();
+
+    double getBytesAllocatedPerSeam();
+
+    long getSeamRemovals();
+
+    long getSeamRemovalNanos();
+
+    long getSeamRemovalP50Nanos();
+
+    long getSeamRemovalP99Nanos();
+
+    long getPictureBuilds();
+
+    long getPictureBuildNanos();
+
+    void reset();
+}
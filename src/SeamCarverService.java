@@ -0,0 +1,167 @@
+import edu.princeton.cs.algs4.Picture;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Carves many pictures concurrently on a fixed pool of threads. Each job runs SeamCarver.carveTo on
+ * buffers taken from a shared pool and returned afterwards, and submitting blocks while the pixels of
+ * the jobs in flight plus those of the pooled buffers would exceed the configured budget, dropping
+ * pooled buffers first, so heap usage stays bounded however fast jobs arrive.
+ */
+public class SeamCarverService implements AutoCloseable {
+
+    private final ExecutorService mExecutor;
+    private final long mMaxPixelsInFlight;
+
+    // guarded by this; once a job has buffers it counts their capacity rather than its picture's pixels
+    private long mPixelsInFlight;
+    private final List<SeamCarver.Buffers> mPooledBuffers = new ArrayList<>();
+    private long mPooledPixels;
+
+    // a picture and the size to carve it to
+    public static class Job {
+
+        private final Picture picture;
+        private final int width;
+        private final int height;
+
+        public Job(Picture picture, int width, int height) {
+            if (picture == null) throw new IllegalArgumentException();
+            this.picture = picture;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    // create a service running jobs on the given number of threads with at most maxPixelsInFlight pixels at once
+    public SeamCarverService(int threads, long maxPixelsInFlight) {
+        if (threads < 1 || maxPixelsInFlight < 1) throw new IllegalArgumentException();
+        mExecutor = Executors.newFixedThreadPool(threads);
+        mMaxPixelsInFlight = maxPixelsInFlight;
+    }
+
+    // carve the picture to the given size, blocking while the pixel budget is used up
+    public Future<Picture> submit(Picture picture, int width, int height) throws InterruptedException {
+        return submit(new Job(picture, width, height));
+    }
+
+    public Future<Picture> submit(Job job) throws InterruptedException {
+        long pixels = (long) job.picture.width() * job.picture.height();
+        acquire(pixels);
+        try {
+            return mExecutor.submit(() -> carve(job));
+        } catch (RuntimeException e) {
+            release(pixels, null);
+            throw e;
+        }
+    }
+
+    // submit every job of the stream in order, applying the same back-pressure as submit
+    public List<Future<Picture>> submitAll(Iterable<Job> jobs) throws InterruptedException {
+        if (jobs == null) throw new IllegalArgumentException();
+        List<Future<Picture>> results = new ArrayList<>();
+        for (Job job : jobs) results.add(submit(job));
+        return results;
+    }
+
+    private Picture carve(Job job) {
+        int size = job.picture.width() * job.picture.height();
+        SeamCarver.Buffers buffers = takeBuffers(size);
+        long pixels = buffers == null ? size : buffers.capacity();
+        SeamCarver carver = null;
+        try {
+            carver = new SeamCarver(job.picture, buffers);
+            carver.carveTo(job.width, job.height);
+            return carver.sharedPicture();
+        } finally {
+            release(pixels, carver == null ? buffers : carver.releaseBuffers());
+        }
+    }
+
+    /*
+     * Reserve the pixels of a job, dropping pooled buffers while they are what keeps it over the
+     * budget. A job larger than the whole budget may still run, but only on its own.
+     */
+    private synchronized void acquire(long pixels) throws InterruptedException {
+        while (mPixelsInFlight + mPooledPixels + pixels > mMaxPixelsInFlight) {
+            if (!mPooledBuffers.isEmpty()) mPooledPixels -= mPooledBuffers.remove(0).capacity();
+            else if (mPixelsInFlight > 0) wait();
+            else break;
+        }
+        mPixelsInFlight += pixels;
+    }
+
+    /*
+     * Release a job's pixels and pool its buffers, if any. The buffers are never larger than what
+     * the job had reserved, so keeping them cannot push the total past the budget.
+     */
+    private synchronized void release(long pixels, SeamCarver.Buffers buffers) {
+        mPixelsInFlight -= pixels;
+        if (buffers != null) {
+            mPooledBuffers.add(buffers);
+            mPooledPixels += buffers.capacity();
+        }
+        notifyAll();
+    }
+
+    /*
+     * The smallest pooled buffers that fit, or null to let the carver allocate its own. The job's
+     * reservation grows to the buffers' capacity, which leaves the pool at the same time, so the
+     * total only shrinks.
+     */
+    private synchronized SeamCarver.Buffers takeBuffers(int size) {
+        int best = -1;
+        for (int i = 0; i < mPooledBuffers.size(); ++i) {
+            int capacity = mPooledBuffers.get(i).capacity();
+            if (capacity >= size && (best == -1 || capacity < mPooledBuffers.get(best).capacity())) best = i;
+        }
+        if (best == -1) return null;
+
+        SeamCarver.Buffers buffers = mPooledBuffers.remove(best);
+        mPooledPixels -= buffers.capacity();
+        mPixelsInFlight += buffers.capacity() - size;
+        return buffers;
+    }
+
+    // finish the submitted jobs and stop the threads
+    @Override
+    public void close() {
+        mExecutor.shutdown();
+        try {
+            mExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // unit testing (optional)
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            int width = StdRandom.uniform(50, 200);
+            int height = StdRandom.uniform(50, 200);
+            Picture picture = new Picture(width, height);
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    picture.setRGB(x, y, StdRandom.uniform(0, 1 << 24));
+                }
+            }
+            jobs.add(new Job(picture, width * 3 / 4, height * 3 / 4));
+        }
+
+        try (SeamCarverService service = new SeamCarverService(Runtime.getRuntime().availableProcessors(), 100000)) {
+            for (Future<Picture> result : service.submitAll(jobs)) {
+                Picture picture = result.get();
+                StdOut.println("Carved to " + picture.width() + "x" + picture.height());
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import edu.princeton.cs.algs4.Picture;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+
+/*
+ * Carves a sequence of video frames to a fixed size. Consecutive frames are nearly identical, so the
+ * k-th seam of a frame is searched only within band pixels of the k-th seam of the previous frame,
+ * which is both faster than a full search and keeps the seams from jumping around between frames.
+ * When a tracked seam's energy differs from its predecessor's by more than the threshold, relative
+ * to the predecessor, the frame is taken to be a new scene and carved with full searches.
+ */
+public class VideoSeamCarver {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mBand;
+    private final double mThreshold;
+
+    // seams and their energies from the previous frame, in removal order; null before the first frame
+    private int[][] mVerticalSeams;
+    private int[][] mHorizontalSeams;
+    private double[] mVerticalEnergies;
+    private double[] mHorizontalEnergies;
+    private int mFrameWidth;
+    private int mFrameHeight;
+
+    private int mTrackedFrames;
+    private int mFullFrames;
+
+    // create a carver of frames down to width x height, tracking seams within band pixels
+    public VideoSeamCarver(int width, int height, int band, double threshold) {
+        if (width < 1 || height < 1 || band < 1 || threshold < 0) throw new IllegalArgumentException();
+        mWidth = width;
+        mHeight = height;
+        mBand = band;
+        mThreshold = threshold;
+    }
+
+    // carve the next frame of the sequence
+    public Picture carve(Picture frame) {
+        if (frame == null || frame.width() < mWidth || frame.height() < mHeight) throw new IllegalArgumentException();
+
+        boolean tracked = mVerticalSeams != null && frame.width() == mFrameWidth && frame.height() == mFrameHeight;
+        if (tracked) {
+            Picture picture = carve(frame, true);
+            if (picture != null) {
+                mTrackedFrames++;
+                return picture;
+            }
+        }
+
+        mFullFrames++;
+        mFrameWidth = frame.width();
+        mFrameHeight = frame.height();
+        mVerticalSeams = new int[mFrameWidth - mWidth][];
+        mHorizontalSeams = new int[mFrameHeight - mHeight][];
+        mVerticalEnergies = new double[mVerticalSeams.length];
+        mHorizontalEnergies = new double[mHorizontalSeams.length];
+        return carve(frame, false);
+    }
+
+    // carve with seams tracked from the previous frame, or null when the scene changed too much
+    private Picture carve(Picture frame, boolean tracked) {
+        SeamCarver carver = new SeamCarver(frame);
+        int[][] verticalSeams = new int[mVerticalSeams.length][];
+        int[][] horizontalSeams = new int[mHorizontalSeams.length][];
+        double[] verticalEnergies = new double[verticalSeams.length];
+        double[] horizontalEnergies = new double[horizontalSeams.length];
+
+        for (int k = 0; k < verticalSeams.length; ++k) {
+            int[] seam = tracked ? carver.findSeamNear(mVerticalSeams[k], mBand, true) : carver.findVerticalSeam();
+            verticalEnergies[k] = carver.seamEnergy(seam, true);
+            if (tracked && changed(mVerticalEnergies[k], verticalEnergies[k])) return null;
+            verticalSeams[k] = seam;
+            carver.removeVerticalSeam(seam);
+        }
+        for (int k = 0; k < horizontalSeams.length; ++k) {
+            int[] seam = tracked ? carver.findSeamNear(mHorizontalSeams[k], mBand, false) : carver.findHorizontalSeam();
+            horizontalEnergies[k] = carver.seamEnergy(seam, false);
+            if (tracked && changed(mHorizontalEnergies[k], horizontalEnergies[k])) return null;
+            horizontalSeams[k] = seam;
+            carver.removeHorizontalSeam(seam);
+        }
+
+        mVerticalSeams = verticalSeams;
+        mHorizontalSeams = horizontalSeams;
+        mVerticalEnergies = verticalEnergies;
+        mHorizontalEnergies = horizontalEnergies;
+        return carver.sharedPicture();
+    }
+
+    private boolean changed(double previous, double current) {
+        return Math.abs(current - previous) > mThreshold * previous;
+    }
+
+    // number of frames carved by tracking the previous frame's seams
+    public int trackedFrames() {
+        return mTrackedFrames;
+    }
+
+    // number of frames carved with full seam searches
+    public int fullFrames() {
+        return mFullFrames;
+    }
+
+    // unit testing (optional)
+    public static void main(String[] args) {
+        int width = 120;
+        int height = 80;
+
+        Picture frame = new Picture(width, height);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                frame.setRGB(x, y, StdRandom.uniform(0, 1 << 24));
+            }
+        }
+
+        VideoSeamCarver video = new VideoSeamCarver(100, 70, 3, 0.25);
+        for (int f = 0; f < 10; ++f) {
+            if (f == 5) {
+                for (int y = 0; y < height; ++y) {
+                    for (int x = 0; x < width; ++x) {
+                        frame.setRGB(x, y, (x * 2) << 16 | (y * 3) << 8);
+                    }
+                }
+            }
+            frame.setRGB(StdRandom.uniform(0, width), StdRandom.uniform(0, height), StdRandom.uniform(0, 1 << 24));
+            Picture carved = video.carve(frame);
+            StdOut.println("Frame " + f + ": " + carved.width() + "x" + carved.height());
+        }
+        StdOut.println("Tracked frames: " + video.trackedFrames() + ", full frames: " + video.fullFrames());
+    }
+}
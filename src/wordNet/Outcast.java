@@ -11,13 +11,11 @@ public class Outcast {
 
     // given an array of wordNet.WordNet nouns, return an outcast
     public String outcast(String[] nouns){
+        int[] matrix = wn.distanceMatrix(nouns);
         int[] distances = new int[nouns.length];
         int largestNounIndex = 0;
         for (int i = 0; i < nouns.length; ++i) {
-            for (String noun : nouns) {
-                if (nouns[i].equals(noun)) distances[i] += 0;
-                else distances[i] += wn.distance(nouns[i], noun);
-            }
+            for (int j = 0; j < nouns.length; ++j) distances[i] += matrix[i * nouns.length + j];
             if (distances[i] > distances[largestNounIndex]) largestNounIndex = i;
         }
 
@@ -0,0 +1,131 @@
+package wordNet;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Bounded cache of SAP query results, keyed by the unordered pair of vertex sets. Entries are spread
+ * over segments by hash, each a synchronized LinkedHashMap in access order that evicts its least
+ * recently used entry when full, so threads querying different pairs rarely wait for each other and
+ * eviction is LRU within each segment.
+ */
+final class QueryCache {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    // two vertex sets as sorted arrays without duplicates, the smaller one first
+    static final class Key {
+
+        private final int[] first;
+        private final int[] second;
+        private final int hash;
+
+        private Key(int[] v, int[] w) {
+            boolean swap = Arrays.compare(v, w) > 0;
+            first = swap ? w : v;
+            second = swap ? v : w;
+            hash = 31 * Arrays.hashCode(first) + Arrays.hashCode(second);
+        }
+
+        static Key of(int v, int w) {
+            return new Key(new int[] { v }, new int[] { w });
+        }
+
+        static Key of(Iterable<Integer> v, Iterable<Integer> w) {
+            return new Key(sortedDistinct(v), sortedDistinct(w));
+        }
+
+        private static int[] sortedDistinct(Iterable<Integer> vertices) {
+            int size = 0;
+            for (int ignored : vertices) ++size;
+            int[] sorted = new int[size];
+            int i = 0;
+            for (int vertex : vertices) sorted[i++] = vertex;
+            Arrays.sort(sorted);
+
+            int distinct = 0;
+            for (int j = 0; j < size; ++j) {
+                if (j == 0 || sorted[j] != sorted[j - 1]) sorted[distinct++] = sorted[j];
+            }
+            return distinct == size ? sorted : Arrays.copyOf(sorted, distinct);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return hash == key.hash && Arrays.equals(first, key.first) && Arrays.equals(second, key.second);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static final class Segment extends LinkedHashMap<Key, Long> {
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    // cache of at most capacity results
+    QueryCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException();
+        int count = Math.min(MAX_SEGMENTS, capacity);
+        segments = new Segment[count];
+        for (int i = 0; i < count; ++i) {
+            segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+        }
+    }
+
+    // cached result for the key, or null on a miss
+    Long get(Key key) {
+        Segment segment = segmentOf(key);
+        Long result;
+        synchronized (segment) {
+            result = segment.get(key);
+        }
+        if (result != null) hits.increment();
+        else misses.increment();
+        return result;
+    }
+
+    void put(Key key, long result) {
+        Segment segment = segmentOf(key);
+        synchronized (segment) {
+            segment.put(key, result);
+        }
+    }
+
+    private Segment segmentOf(Key key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[Math.floorMod(hash, segments.length)];
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+}
@@ -1,173 +1,551 @@
 package wordNet;
 
 import edu.princeton.cs.algs4.Digraph;
-import edu.princeton.cs.algs4.Queue;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class SAP {
 
-    private final Digraph digraph;
+    /*
+     * The graph in compressed sparse row form: the parents of vertex v are
+     * edgeTargets[edgeOffsets[v]] to edgeTargets[edgeOffsets[v + 1] - 1], so a search walks
+     * contiguous ints instead of linked lists of boxed integers.
+     */
+    private final int[] edgeOffsets;
+    private final int[] edgeTargets;
 
-    private HashMap<Integer, Integer> childCounterV;
-    private HashMap<Integer, Integer> childCounterW;
+    /*
+     * The graph is never modified after construction, so queries only need scratch space of their
+     * own: each query claims a Search from one of the slots with a compare-and-set, or creates one
+     * when every slot is empty, and puts it back into an empty slot afterwards. A single SAP can so
+     * serve any number of threads at once, and borrowing and returning allocate nothing unless more
+     * queries run at once than there are slots.
+     */
+    private final AtomicReferenceArray<Search> searches =
+            new AtomicReferenceArray<>(2 * Runtime.getRuntime().availableProcessors());
+
+    // results of recent queries, or null when caching is off
+    private final QueryCache cache;
+
+    // ancestor labels from buildIndex, or null before it is called
+    private volatile Labels index;
 
     // constructor takes a digraph (not necessarily a DAG)
     public SAP(Digraph G) {
-        digraph = new Digraph(G.V());
+        this(G, 0);
+    }
+
+    // a SAP remembering the results of the cacheCapacity most recently used queries; 0 for no cache
+    public SAP(Digraph G, int cacheCapacity) {
+        if (cacheCapacity < 0) throw new IllegalArgumentException();
+        cache = cacheCapacity == 0 ? null : new QueryCache(cacheCapacity);
+        edgeOffsets = new int[G.V() + 1];
+        for (int e = 0; e < G.V(); ++e) edgeOffsets[e + 1] = edgeOffsets[e] + G.outdegree(e);
+
+        edgeTargets = new int[edgeOffsets[G.V()]];
         for (int e = 0; e < G.V(); ++e) {
-            if (G.outdegree(e) > 0) {
-                for (int n : G.adj(e)) { digraph.addEdge(e, n); }
-            }
+            int edge = edgeOffsets[e];
+            for (int n : G.adj(e)) edgeTargets[edge++] = n;
         }
     }
 
     // length of shortest ancestral path between v and w; -1 if no such path
     public int length(int v, int w) {
-        int ancestor = ancestor(v, w);
-        if (ancestor != -1) return childCounterV.get(ancestor) + childCounterW.get(ancestor);
-        else return -1;
+        return lengthOf(query(v, w));
     }
 
     // a common ancestor of v and w that participates in a shortest ancestral path; -1 if no such path
     public int ancestor(int v, int w) {
-        Queue<Integer> queueV = new Queue<>();
-        HashMap<Integer, Boolean> markerV = new HashMap<>();
-        childCounterV = new HashMap<>();
-        markAndEnqueue(queueV, markerV, v);
-        childCounterV.put(v, 0);
-
-        Queue<Integer> queueW = new Queue<>();
-        HashMap<Integer, Boolean> markerW = new HashMap<>();
-        childCounterW = new HashMap<>();
-        markAndEnqueue(queueW, markerW, w);
-        childCounterW.put(w, 0);
-
-        if (v == w) return v;
-
-        int smallestCommonAncestor = -1;
-
-        boolean toA = true;
-
-        int current;
-        while (!queueV.isEmpty() || !queueW.isEmpty()) {
-            if (toA && !queueV.isEmpty()) {
-                current = queueV.dequeue();
-                if (digraph.outdegree(current) > 0) {
-                    for (int sy : digraph.adj(current)) {
-                        increaseChildCount(childCounterV, sy, current);
-                        if (!isMarked(markerV, sy)) markAndEnqueue(queueV, markerV, sy);
-                        if (isMarked(markerW, sy)) {
-                            smallestCommonAncestor = getSmallestChildCountParent(smallestCommonAncestor, sy);
-                        }
-                    }
-                }
-                toA = queueW.isEmpty();
-            } else {
-                current = queueW.dequeue();
-                if (digraph.outdegree(current) > 0) {
-                    for (int sy : digraph.adj(current)) {
-                        increaseChildCount(childCounterW, sy, current);
-                        if (!isMarked(markerW, sy)) markAndEnqueue(queueW, markerW, sy);
-                        if (isMarked(markerV, sy)) {
-                            smallestCommonAncestor = getSmallestChildCountParent(smallestCommonAncestor, sy);
-                        }
-                    }
-                }
-                toA = !queueV.isEmpty();
+        return ancestorOf(query(v, w));
+    }
+
+    // the ancestor in the high and the length in the low half of a query result
+    private long query(int v, int w) {
+        validateVertex(v);
+        validateVertex(w);
+
+        QueryCache.Key key = null;
+        if (cache != null) {
+            key = QueryCache.Key.of(v, w);
+            Long cached = cache.get(key);
+            if (cached != null) return cached;
+        }
+
+        long result;
+        Labels labels = index;
+        if (labels != null && labels.covers(v) && labels.covers(w)) {
+            result = labels.join(v, w);
+        } else {
+            Search search = takeSearch();
+            try {
+                int ancestor = search.ancestor(v, w);
+                result = result(ancestor, search.length(ancestor));
+            } finally {
+                returnSearch(search);
             }
         }
-        return smallestCommonAncestor;
+
+        if (cache != null) cache.put(key, result);
+        return result;
     }
 
-    private int getSmallestChildCountParent(int smallestCommonAncestor, int sy) {
-        if (smallestCommonAncestor == -1) smallestCommonAncestor = sy;
-        else {
-            if (childCounterV.get(sy) + childCounterW.get(sy) <
-                    childCounterV.get(smallestCommonAncestor) + childCounterW.get(smallestCommonAncestor)) {
-                smallestCommonAncestor = sy;
-            }
+    private long query(Iterable<Integer> v, Iterable<Integer> w) {
+        validate(v, w);
+
+        QueryCache.Key key = null;
+        if (cache != null) {
+            key = QueryCache.Key.of(v, w);
+            Long cached = cache.get(key);
+            if (cached != null) return cached;
+        }
+
+        long result;
+        Labels labels = index;
+        Search search = takeSearch();
+        try {
+            int ancestor = labels != null && labels.covers(v) && labels.covers(w)
+                    ? search.ancestorFromLabels(labels, v, w)
+                    : search.ancestor(v, w);
+            result = result(ancestor, search.length(ancestor));
+        } finally {
+            returnSearch(search);
         }
-        return smallestCommonAncestor;
+
+        if (cache != null) cache.put(key, result);
+        return result;
     }
 
-    private void markAndEnqueue(Queue<Integer> queue, HashMap<Integer, Boolean> marker, int position) {
-        queue.enqueue(position);
-        marker.put(position, true);
+    private static long result(int ancestor, int length) {
+        return (long) ancestor << 32 | (length & 0xFFFFFFFFL);
     }
 
-    private boolean isMarked(HashMap<Integer, Boolean> marker, int sy) {
-        return marker.getOrDefault(sy, false);
+    private static int ancestorOf(long result) {
+        return (int) (result >> 32);
     }
 
-    private void increaseChildCount(HashMap<Integer, Integer> childCounter, int parent, int child) {
-        childCounter.putIfAbsent(parent, childCounter.get(child) + 1);
+    private static int lengthOf(long result) {
+        return (int) result;
     }
 
-    // length of shortest ancestral path between any vertex in v and any vertex in w; -1 if no such path
-    public int length(Iterable<Integer> v, Iterable<Integer> w) {
-        validate(v, w);
-        HashMap<Integer, Integer> lengthMap = createMapOfShortestLengthAncestors(v, w);
+    // number of queries answered from the cache
+    public long cacheHits() {
+        return cache == null ? 0 : cache.hits();
+    }
 
-        return getShortestLength(lengthMap);
+    // number of queries that had to search because their result was not cached
+    public long cacheMisses() {
+        return cache == null ? 0 : cache.misses();
     }
 
-    private void validate(Iterable<Integer> v, Iterable<Integer> w) {
-        if (v == null || w == null) throw new IllegalArgumentException();
+    /*
+     * Precompute for every vertex its label: all of its ancestors, itself included, with their
+     * distances, sorted by ancestor. Queries between labelled vertices then merge two short labels
+     * instead of searching, which pays off on shallow graphs such as WordNet's hypernyms where every
+     * synset has only a few dozen ancestors. Vertices with more than maxLabelSize ancestors, and
+     * those left once the labels would take more than maxBytes, get no label and are still answered
+     * by BFS.
+     */
+    public void buildIndex(int maxLabelSize, long maxBytes) {
+        if (maxLabelSize < 1 || maxBytes < 0) throw new IllegalArgumentException();
+        long maxEntries = Math.max(0, (maxBytes - 4L * (vertexCount() + 1)) / 8);
+
+        Search search = takeSearch();
+        try {
+            index = search.labels(maxLabelSize, (int) Math.min(maxEntries, Integer.MAX_VALUE - 8));
+        } finally {
+            returnSearch(search);
+        }
+    }
+
+    // number of vertices answered from the index rather than by BFS; 0 before buildIndex
+    public int indexedVertices() {
+        Labels labels = index;
+        if (labels == null) return 0;
+        int count = 0;
+        for (int v = 0; v < vertexCount(); ++v) {
+            if (labels.covers(v)) ++count;
+        }
+        return count;
+    }
+
+    /*
+     * Label of vertex v in entries [offsets[v], offsets[v + 1]) of ancestors and distances, sorted by
+     * ancestor. A label always holds at least the vertex itself, so an empty range marks a vertex
+     * without a label.
+     */
+    private static final class Labels {
+
+        private final int[] offsets;
+        private final int[] ancestors;
+        private final int[] distances;
+
+        Labels(int[] offsets, int[] ancestors, int[] distances) {
+            this.offsets = offsets;
+            this.ancestors = ancestors;
+            this.distances = distances;
+        }
+
+        boolean covers(int v) {
+            return offsets[v + 1] > offsets[v];
+        }
+
+        boolean covers(Iterable<Integer> vertices) {
+            for (int v : vertices) {
+                if (!covers(v)) return false;
+            }
+            return true;
+        }
+
+        // query result of the shortest ancestral path between two labelled vertices
+        long join(int v, int w) {
+            int i = offsets[v], endV = offsets[v + 1];
+            int j = offsets[w], endW = offsets[w + 1];
+            int ancestor = -1;
+            int length = -1;
+            while (i < endV && j < endW) {
+                if (ancestors[i] < ancestors[j]) ++i;
+                else if (ancestors[i] > ancestors[j]) ++j;
+                else {
+                    int candidate = distances[i] + distances[j];
+                    if (length == -1 || candidate < length) {
+                        ancestor = ancestors[i];
+                        length = candidate;
+                    }
+                    ++i;
+                    ++j;
+                }
+            }
+            return result(ancestor, length);
+        }
+    }
+
+    /*
+     * every ancestor of the given vertices, themselves included, with its distance from the nearest
+     * of them, packed as ancestor << 32 | distance and sorted by ancestor
+     */
+    long[] ancestorDistances(Iterable<Integer> v) {
+        if (v == null) throw new IllegalArgumentException();
         for (Integer i : v) {
             if (i == null) throw new IllegalArgumentException();
+            validateVertex(i);
         }
 
-        for (Integer i : w) {
-            if (i == null) throw new IllegalArgumentException();
+        Search search = takeSearch();
+        try {
+            return search.ancestorDistances(v);
+        } finally {
+            returnSearch(search);
         }
     }
 
-    private int getShortestLength(HashMap<Integer, Integer> lengthMap) {
-        int shortestLength = -1;
-        for (int p : lengthMap.values()) {
-            if (shortestLength != -1) {
-                if (p < shortestLength) shortestLength = p;
-            } else shortestLength = p;
+    // length of the shortest ancestral path between two results of ancestorDistances; -1 if no such path
+    static int length(long[] ancestorsV, long[] ancestorsW) {
+        int i = 0;
+        int j = 0;
+        int length = -1;
+        while (i < ancestorsV.length && j < ancestorsW.length) {
+            long ancestorV = ancestorsV[i] >>> 32;
+            long ancestorW = ancestorsW[j] >>> 32;
+            if (ancestorV < ancestorW) ++i;
+            else if (ancestorV > ancestorW) ++j;
+            else {
+                int candidate = (int) ancestorsV[i++] + (int) ancestorsW[j++];
+                if (length == -1 || candidate < length) length = candidate;
+            }
         }
-        return shortestLength;
+        return length;
     }
 
-    private HashMap<Integer, Integer> createMapOfShortestLengthAncestors(Iterable<Integer> v, Iterable<Integer> w) {
-        HashMap<Integer, Integer> lengthMap = new HashMap<>();
-        int ancestor;
-        int length;
-        for (int j : v) {
-            for (int k : w) {
-                ancestor = ancestor(j, k);
-                if (ancestor != -1) {
-                    length = childCounterV.get(ancestor) + childCounterW.get(ancestor);
-                    addShortestAncestralLengthToMap(lengthMap, length, ancestor);
+    private int vertexCount() {
+        return edgeOffsets.length - 1;
+    }
+
+    private Search takeSearch() {
+        int start = firstSlot();
+        for (int i = 0; i < searches.length(); ++i) {
+            int slot = (start + i) % searches.length();
+            Search search = searches.get(slot);
+            if (search != null && searches.compareAndSet(slot, search, null)) return search;
+        }
+        return new Search(vertexCount());
+    }
+
+    // keep the search for later queries unless every slot is taken
+    private void returnSearch(Search search) {
+        int start = firstSlot();
+        for (int i = 0; i < searches.length(); ++i) {
+            int slot = (start + i) % searches.length();
+            if (searches.get(slot) == null && searches.compareAndSet(slot, null, search)) return;
+        }
+    }
+
+    // threads start scanning at different slots, so that they rarely compete for the same one
+    private int firstSlot() {
+        return (int) (Thread.currentThread().getId() % searches.length());
+    }
+
+    private void validateVertex(int v) {
+        if (v < 0 || v >= vertexCount()) throw new IllegalArgumentException();
+    }
+
+    /*
+     * Scratch space of one query at a time, reused by every query: a vertex has been reached from v
+     * (w) in the current query only when markerV (markerW) holds the current epoch, and only then is
+     * its childCounterV (childCounterW) meaningful. Starting a query just moves to the next epoch, so
+     * nothing is cleared or allocated and a query costs time proportional to the vertices it visits.
+     * Each vertex is enqueued at most once per side, so the queues never need more than V slots.
+     */
+    private final class Search {
+
+        private final int[] markerV;
+        private final int[] markerW;
+        private final int[] childCounterV;
+        private final int[] childCounterW;
+        private final int[] queueV;
+        private final int[] queueW;
+        private int epoch;
+
+        Search(int size) {
+            markerV = new int[size];
+            markerW = new int[size];
+            childCounterV = new int[size];
+            childCounterW = new int[size];
+            queueV = new int[size];
+            queueW = new int[size];
+        }
+
+        int ancestor(int v, int w) {
+            nextEpoch();
+
+            int tailV = enqueueSource(queueV, markerV, childCounterV, 0, v);
+            int tailW = enqueueSource(queueW, markerW, childCounterW, 0, w);
+
+            if (v == w) return v;
+            return search(tailV, tailW);
+        }
+
+        int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
+            nextEpoch();
+
+            int tailV = 0;
+            for (int sy : v) tailV = enqueueSource(queueV, markerV, childCounterV, tailV, sy);
+
+            // a vertex in both sets is its own ancestor at distance 0
+            int tailW = 0;
+            int commonSource = -1;
+            for (int sy : w) {
+                tailW = enqueueSource(queueW, markerW, childCounterW, tailW, sy);
+                if (markerV[sy] == epoch) commonSource = sy;
+            }
+
+            if (commonSource != -1) return commonSource;
+            return search(tailV, tailW);
+        }
+
+        /*
+         * Shortest ancestral path between two sets of labelled vertices: the labels of each set are
+         * merged into the distances of that side, keeping the smallest distance per ancestor, so that
+         * length() works just as after a search.
+         */
+        int ancestorFromLabels(Labels labels, Iterable<Integer> v, Iterable<Integer> w) {
+            nextEpoch();
+            for (int sy : v) mergeLabel(labels, sy, markerV, childCounterV);
+            for (int sy : w) mergeLabel(labels, sy, markerW, childCounterW);
+
+            int smallestCommonAncestor = -1;
+            for (int sy : w) {
+                for (int i = labels.offsets[sy]; i < labels.offsets[sy + 1]; ++i) {
+                    if (markerV[labels.ancestors[i]] == epoch) {
+                        smallestCommonAncestor = getSmallestChildCountParent(smallestCommonAncestor, labels.ancestors[i]);
+                    }
                 }
             }
+            return smallestCommonAncestor;
         }
-        return lengthMap;
-    }
 
-    private void addShortestAncestralLengthToMap(HashMap<Integer, Integer> lengthMap, int length, int ancestor) {
-        if (lengthMap.containsKey(ancestor)) {
-            if (length < lengthMap.get(ancestor)) lengthMap.replace(ancestor, length);
-        } else lengthMap.put(ancestor, length);
+        private void mergeLabel(Labels labels, int vertex, int[] marker, int[] childCounter) {
+            for (int i = labels.offsets[vertex]; i < labels.offsets[vertex + 1]; ++i) {
+                int ancestor = labels.ancestors[i];
+                if (marker[ancestor] != epoch) {
+                    marker[ancestor] = epoch;
+                    childCounter[ancestor] = labels.distances[i];
+                } else if (labels.distances[i] < childCounter[ancestor]) {
+                    childCounter[ancestor] = labels.distances[i];
+                }
+            }
+        }
+
+        long[] ancestorDistances(Iterable<Integer> v) {
+            nextEpoch();
+            int tail = 0;
+            for (int sy : v) tail = enqueueSource(queueV, markerV, childCounterV, tail, sy);
+
+            for (int head = 0; head < tail; ++head) {
+                int current = queueV[head];
+                for (int edge = edgeOffsets[current]; edge < edgeOffsets[current + 1]; ++edge) {
+                    int sy = edgeTargets[edge];
+                    if (markerV[sy] != epoch) {
+                        markerV[sy] = epoch;
+                        childCounterV[sy] = childCounterV[current] + 1;
+                        queueV[tail++] = sy;
+                    }
+                }
+            }
+
+            long[] ancestors = new long[tail];
+            for (int i = 0; i < tail; ++i) ancestors[i] = (long) queueV[i] << 32 | childCounterV[queueV[i]];
+            Arrays.sort(ancestors);
+            return ancestors;
+        }
+
+        // labels of every vertex by one BFS each, skipping labels over maxLabelSize or past maxEntries
+        Labels labels(int maxLabelSize, int maxEntries) {
+            int size = markerV.length;
+            int[] offsets = new int[size + 1];
+            int[] ancestors = new int[Math.min(maxEntries, 4 * size)];
+            int[] distances = new int[ancestors.length];
+            int entries = 0;
+
+            for (int v = 0; v < size; ++v) {
+                nextEpoch();
+                int tail = enqueueSource(queueV, markerV, childCounterV, 0, v);
+                for (int head = 0; head < tail && tail <= maxLabelSize; ++head) {
+                    int current = queueV[head];
+                    for (int edge = edgeOffsets[current]; edge < edgeOffsets[current + 1]; ++edge) {
+                        int sy = edgeTargets[edge];
+                        if (markerV[sy] != epoch) {
+                            markerV[sy] = epoch;
+                            childCounterV[sy] = childCounterV[current] + 1;
+                            queueV[tail++] = sy;
+                        }
+                    }
+                }
+
+                if (tail <= maxLabelSize && tail <= maxEntries - entries) {
+                    if (entries + tail > ancestors.length) {
+                        int capacity = (int) Math.min(maxEntries, Math.max(2L * ancestors.length, entries + tail));
+                        ancestors = Arrays.copyOf(ancestors, capacity);
+                        distances = Arrays.copyOf(distances, capacity);
+                    }
+                    System.arraycopy(queueV, 0, ancestors, entries, tail);
+                    Arrays.sort(ancestors, entries, entries + tail);
+                    for (int i = entries; i < entries + tail; ++i) distances[i] = childCounterV[ancestors[i]];
+                    entries += tail;
+                }
+                offsets[v + 1] = entries;
+            }
+            return new Labels(offsets, Arrays.copyOf(ancestors, entries), Arrays.copyOf(distances, entries));
+        }
+
+        // length of the ancestral path through the ancestor found by the last query
+        int length(int ancestor) {
+            if (ancestor != -1) return childCounterV[ancestor] + childCounterW[ancestor];
+            else return -1;
+        }
+
+        private int enqueueSource(int[] queue, int[] marker, int[] childCounter, int tail, int source) {
+            if (marker[source] == epoch) return tail;
+            marker[source] = epoch;
+            childCounter[source] = 0;
+            queue[tail] = source;
+            return tail + 1;
+        }
+
+        /*
+         * BFS from everything already in queueV and queueW, whose distances are set: both searches
+         * start at distance 0 from all of their sources, so a single traversal finds the shortest
+         * ancestral path between the two sets however many sources each has. Each step expands the
+         * side with the smaller frontier. A common ancestor not yet found from one side is further
+         * from it than that side's frontier, so once the nearer frontier is within one of the best
+         * length found nothing shorter can turn up and the search stops without exploring the rest
+         * of the ancestors.
+         */
+        private int search(int tailV, int tailW) {
+            int headV = 0;
+            int headW = 0;
+
+            int smallestCommonAncestor = -1;
+
+            int current;
+            while (headV < tailV || headW < tailW) {
+                if (smallestCommonAncestor != -1) {
+                    int frontierV = headV < tailV ? childCounterV[queueV[headV]] : Integer.MAX_VALUE;
+                    int frontierW = headW < tailW ? childCounterW[queueW[headW]] : Integer.MAX_VALUE;
+                    if (Math.min(frontierV, frontierW) + 1 >= length(smallestCommonAncestor)) break;
+                }
+
+                if (headW == tailW || (headV < tailV && tailV - headV <= tailW - headW)) {
+                    current = queueV[headV++];
+                    for (int edge = edgeOffsets[current]; edge < edgeOffsets[current + 1]; ++edge) {
+                        int sy = edgeTargets[edge];
+                        if (markerV[sy] != epoch) {
+                            markerV[sy] = epoch;
+                            childCounterV[sy] = childCounterV[current] + 1;
+                            queueV[tailV++] = sy;
+                        }
+                        if (markerW[sy] == epoch) {
+                            smallestCommonAncestor = getSmallestChildCountParent(smallestCommonAncestor, sy);
+                        }
+                    }
+                } else {
+                    current = queueW[headW++];
+                    for (int edge = edgeOffsets[current]; edge < edgeOffsets[current + 1]; ++edge) {
+                        int sy = edgeTargets[edge];
+                        if (markerW[sy] != epoch) {
+                            markerW[sy] = epoch;
+                            childCounterW[sy] = childCounterW[current] + 1;
+                            queueW[tailW++] = sy;
+                        }
+                        if (markerV[sy] == epoch) {
+                            smallestCommonAncestor = getSmallestChildCountParent(smallestCommonAncestor, sy);
+                        }
+                    }
+                }
+            }
+            return smallestCommonAncestor;
+        }
+
+        // unmark every vertex by moving to a fresh epoch, clearing the markers only when the epochs run out
+        private void nextEpoch() {
+            if (epoch == Integer.MAX_VALUE) {
+                Arrays.fill(markerV, 0);
+                Arrays.fill(markerW, 0);
+                epoch = 0;
+            }
+            ++epoch;
+        }
+
+        private int getSmallestChildCountParent(int smallestCommonAncestor, int sy) {
+            if (smallestCommonAncestor == -1) smallestCommonAncestor = sy;
+            else {
+                if (length(sy) < length(smallestCommonAncestor)) smallestCommonAncestor = sy;
+            }
+            return smallestCommonAncestor;
+        }
     }
 
-    // a common ancestor that participates in shortest ancestral path; -1 if no such path
-    public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
-        validate(v, w);
-        HashMap<Integer, Integer> lengthMap = createMapOfShortestLengthAncestors(v, w);
-        int shortestLength = getShortestLength(lengthMap);
-        return getShortestLengthAncestor(lengthMap, shortestLength);
+    // length of shortest ancestral path between any vertex in v and any vertex in w; -1 if no such path
+    public int length(Iterable<Integer> v, Iterable<Integer> w) {
+        return lengthOf(query(v, w));
     }
 
-    private int getShortestLengthAncestor(HashMap<Integer, Integer> lengthMap, int shortestLength) {
-        for (int k : lengthMap.keySet()) {
-            if (lengthMap.get(k) == shortestLength) return k;
+    private void validate(Iterable<Integer> v, Iterable<Integer> w) {
+        if (v == null || w == null) throw new IllegalArgumentException();
+        for (Integer i : v) {
+            if (i == null) throw new IllegalArgumentException();
+            validateVertex(i);
+        }
+
+        for (Integer i : w) {
+            if (i == null) throw new IllegalArgumentException();
+            validateVertex(i);
         }
-        return -1;
+    }
+
+    // a common ancestor that participates in shortest ancestral path; -1 if no such path
+    public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
+        return ancestorOf(query(v, w));
     }
 
     // do unit testing of this class
@@ -5,12 +5,27 @@ import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdOut;
 import edu.princeton.cs.algs4.DirectedCycle;
 
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class WordNet {
 
+    // distances computed by one fork/join task before it stops splitting its rows
+    private static final int MIN_TASK_DISTANCES = 1 << 12;
+
+    // distances per block of rows written by the streaming distanceMatrix
+    private static final int BLOCK_DISTANCES = 1 << 20;
+
     private final ArrayList<String[]> synsets;
 
     private final SAP sap;
@@ -21,7 +36,13 @@ public class WordNet {
 
     // constructor takes the name of the two input files
     public WordNet(String synSetsFileName, String hypernymFileName) {
+        this(synSetsFileName, hypernymFileName, 0);
+    }
+
+    // a wordNet.WordNet caching the results of the cacheCapacity most recently used noun pairs; 0 for no cache
+    public WordNet(String synSetsFileName, String hypernymFileName, int cacheCapacity) {
         validateInput(synSetsFileName != null, hypernymFileName != null);
+        validateInput(cacheCapacity >= 0, true);
 
         nounPositions = new HashMap<>();
 
@@ -30,7 +51,7 @@ public class WordNet {
 
         if (!isRootDAG(wordDigraph)) throw new IllegalArgumentException();
 
-        sap = new SAP(wordDigraph);
+        sap = new SAP(wordDigraph, cacheCapacity);
 
         nouns = getNouns(synsets);
     }
@@ -159,6 +180,120 @@ public class WordNet {
         if (ancestor != -1) return getShortestAncestorString(ancestor); else return null;
     }
 
+    // number of distance and sap queries answered from the cache
+    public long cacheHits() {
+        return sap.cacheHits();
+    }
+
+    // number of distance and sap queries that had to search
+    public long cacheMisses() {
+        return sap.cacheMisses();
+    }
+
+    /*
+     * distances between all pairs of the given nouns, row-major: entry i * n + j is
+     * distance(nouns[i], nouns[j]). Each noun's ancestors are found by one BFS, and every distance is
+     * then a merge of two sorted ancestor lists, computed once per unordered pair on the common
+     * fork/join pool.
+     */
+    public int[] distanceMatrix(String[] nouns) {
+        long[][] ancestors = ancestorDistances(nouns);
+        int n = nouns.length;
+        if ((long) n * n > Integer.MAX_VALUE - 8) throw new IllegalArgumentException();
+
+        int[] matrix = new int[n * n];
+        ForkJoinPool.commonPool().invoke(new MatrixRows(ancestors, matrix, 0, 0, n, true));
+        return matrix;
+    }
+
+    /*
+     * the same matrix as distanceMatrix(nouns), written to the file as big-endian ints one block of
+     * rows at a time, for noun sets whose matrix does not fit in memory
+     */
+    public void distanceMatrix(String[] nouns, String fileName) {
+        validateInput(fileName != null, true);
+        long[][] ancestors = ancestorDistances(nouns);
+        int n = nouns.length;
+
+        // an empty noun set still truncates the file to its empty matrix
+        int rows = Math.max(1, BLOCK_DISTANCES / Math.max(n, 1));
+        int[] block = new int[rows * n];
+        ByteBuffer bytes = ByteBuffer.allocate(4 * block.length);
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16)) {
+            for (int from = 0; from < n; from += rows) {
+                int to = Math.min(from + rows, n);
+                ForkJoinPool.commonPool().invoke(new MatrixRows(ancestors, block, from, from, to, false));
+
+                bytes.clear();
+                bytes.asIntBuffer().put(block, 0, (to - from) * n);
+                out.write(bytes.array(), 0, 4 * (to - from) * n);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ancestors with distances of every noun, one BFS per noun on the common fork/join pool
+    private long[][] ancestorDistances(String[] nouns) {
+        validateInput(nouns != null, true);
+        for (String noun : nouns) validateInput(isNoun(noun), true);
+
+        long[][] ancestors = new long[nouns.length][];
+        Arrays.parallelSetAll(ancestors, i -> sap.ancestorDistances(nounPositions.get(nouns[i])));
+        return ancestors;
+    }
+
+    /*
+     * Rows [from, to) of the distance matrix into matrix, whose first row is row first, split in halves
+     * down to tasks of about MIN_TASK_DISTANCES distances. When symmetric is set the matrix holds every
+     * row, and each row only computes the entries right of the diagonal and mirrors them.
+     */
+    private static class MatrixRows extends RecursiveAction {
+
+        private final long[][] ancestors;
+        private final int[] matrix;
+        private final int first;
+        private final int from;
+        private final int to;
+        private final boolean symmetric;
+
+        MatrixRows(long[][] ancestors, int[] matrix, int first, int from, int to, boolean symmetric) {
+            this.ancestors = ancestors;
+            this.matrix = matrix;
+            this.first = first;
+            this.from = from;
+            this.to = to;
+            this.symmetric = symmetric;
+        }
+
+        @Override
+        protected void compute() {
+            int n = ancestors.length;
+            if (to - from > 1 && (long) (to - from) * n > MIN_TASK_DISTANCES) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new MatrixRows(ancestors, matrix, first, from, middle, symmetric),
+                        new MatrixRows(ancestors, matrix, first, middle, to, symmetric));
+                return;
+            }
+
+            for (int i = from; i < to; ++i) {
+                int row = (i - first) * n;
+                if (symmetric) {
+                    for (int j = i + 1; j < n; ++j) {
+                        int distance = SAP.length(ancestors[i], ancestors[j]);
+                        matrix[row + j] = distance;
+                        matrix[j * n + i] = distance;
+                    }
+                } else {
+                    for (int j = 0; j < n; ++j) {
+                        matrix[row + j] = j == i ? 0 : SAP.length(ancestors[i], ancestors[j]);
+                    }
+                }
+            }
+        }
+    }
+
     private String getShortestAncestorString(int ancestor) {
         StringBuilder string = new StringBuilder();
         for (String s : synsets.get(ancestor)) {